@@ -0,0 +1,307 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Maps every address and output ID to the transactions of the best chain that involve it (see
+ * {@link Transaction#getInvolvedKeys()}), so wallet history and "was this output spent" queries do
+ * not have to read every block. The index is kept up to date by the {@link Ledger} it is attached
+ * to, block by block, including when blocks are disconnected by a reorganization.
+ *
+ * The index lives in memory and is also written to an append-only file, so it does not have to be
+ * rebuilt at every start. The file starts with the magic number and a version byte; after that,
+ * every connected block is one record:
+ *   byte 1, int height, 32-byte block hash, int key count, then per key: 32-byte key, int transaction index
+ * and every disconnected block is: byte 2, int height, 32-byte block hash.
+ * Only keys that are SHA-256 hashes (64 hex digits) are indexed. A record cut short by a crash is
+ * dropped when the file is opened. If the file cannot be written the index keeps working in memory;
+ * the missing blocks are indexed again at the next start. A file that cannot be read is started over.
+ */
+public class AddressIndex implements Closeable {
+
+    private static final int MAGIC = 0x41494458; // "AIDX"
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 5;
+    private static final byte CONNECT = 1;
+    private static final byte DISCONNECT = 2;
+
+    // The transactions involving one key, in chain order, each packed as height << 32 | index.
+    private static final class Postings {
+        long[] entries = new long[2];
+        int size;
+
+        void add(int height, int index) {
+            if (size == entries.length) entries = Arrays.copyOf(entries, size * 2);
+            entries[size++] = (long) height << 32 | index;
+        }
+
+        void removeHeight(int height) {
+            while (size > 0 && (int) (entries[size - 1] >>> 32) == height) size--;
+        }
+    }
+
+    private final Path file;
+    private final HashMap<String, Postings> postings = new HashMap<>();
+    // The hash of every indexed block, by height: the best chain as the index knows it.
+    private final ArrayList<String> indexedHashes = new ArrayList<>();
+    private DataOutputStream out; // null once a write has failed
+
+    /**
+     * Opens (or creates) an index file and loads it.
+     * @param file The index file.
+     */
+    public AddressIndex(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file) && Files.size(file) >= HEADER_SIZE) {
+            long end;
+            try {
+                end = load();
+            } catch (IOException e) {
+                Log.warn("Could not read " + file + ", starting a new address index: " + e.getMessage());
+                postings.clear();
+                indexedHashes.clear();
+                out = openForAppend(true);
+                return;
+            }
+            if (end < Files.size(file)) {
+                Log.warn("Dropping an incomplete record at the end of " + file);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(end);
+                }
+            }
+            out = openForAppend(false);
+        } else {
+            out = openForAppend(true);
+        }
+    }
+
+    /**
+     * @return The number of blocks indexed: the best chain up to height getIndexedHeight() - 1.
+     */
+    public synchronized int getIndexedHeight() {
+        return indexedHashes.size();
+    }
+
+    /**
+     * @param height A height below {@link #getIndexedHeight()}.
+     * @return The hash of the block indexed at that height.
+     */
+    public synchronized String getIndexedHash(int height) {
+        return indexedHashes.get(height);
+    }
+
+    /**
+     * @return The number of distinct addresses and output IDs in the index.
+     */
+    public synchronized int getKeyCount() {
+        return postings.size();
+    }
+
+    /**
+     * @param key An address or output ID.
+     * @return Where the transactions involving it are in the best chain, oldest first.
+     */
+    public synchronized List<TransactionLocation> find(String key) {
+        Postings found = (key == null) ? null : postings.get(key.toLowerCase());
+        List<TransactionLocation> locations = new ArrayList<>();
+        if (found == null) return locations;
+        for (int i = 0; i < found.size; i++) {
+            long entry = found.entries[i];
+            locations.add(new TransactionLocation((int) (entry >>> 32), (int) entry));
+        }
+        return locations;
+    }
+
+    /**
+     * Indexes a block that was connected to the tip of the best chain.
+     * @param block The block.
+     * @param height Its height, which must be {@link #getIndexedHeight()}.
+     */
+    public synchronized void connected(Block block, int height) {
+        if (height != indexedHashes.size()) {
+            throw new IllegalStateException("Block " + height + " connected, but the index is at height " + indexedHashes.size());
+        }
+        ArrayList<String> keys = new ArrayList<>();
+        ArrayList<Integer> indexes = new ArrayList<>();
+        for (int t = 0; t < block.transactions.size(); t++) {
+            for (String key : block.transactions.get(t).getInvolvedKeys()) {
+                if (!BinaryCodec.isHashHex(key)) continue;
+                keys.add(key.toLowerCase());
+                indexes.add(t);
+            }
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            postings.computeIfAbsent(keys.get(i), k -> new Postings()).add(height, indexes.get(i));
+        }
+        indexedHashes.add(block.hash);
+        if (out == null) return;
+        try {
+            out.writeByte(CONNECT);
+            out.writeInt(height);
+            out.write(Crypto.hexToBytes(block.hash));
+            out.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out.write(Crypto.hexToBytes(keys.get(i)));
+                out.writeInt(indexes.get(i));
+            }
+            out.flush();
+        } catch (IOException e) {
+            writeFailed(e);
+        }
+    }
+
+    /**
+     * Removes a block that was disconnected from the tip of the best chain.
+     * @param block The block.
+     * @param height Its height, which must be {@link #getIndexedHeight()} - 1.
+     */
+    public synchronized void disconnected(Block block, int height) {
+        if (height != indexedHashes.size() - 1 || !indexedHashes.get(height).equals(block.hash)) {
+            throw new IllegalStateException("Block " + block.hash + " disconnected, but it is not the indexed tip");
+        }
+        for (Transaction transaction : block.transactions) {
+            for (String key : transaction.getInvolvedKeys()) {
+                if (BinaryCodec.isHashHex(key)) removeHeight(key.toLowerCase(), height);
+            }
+        }
+        indexedHashes.remove(height);
+        if (out == null) return;
+        try {
+            out.writeByte(DISCONNECT);
+            out.writeInt(height);
+            out.write(Crypto.hexToBytes(block.hash));
+            out.flush();
+        } catch (IOException e) {
+            writeFailed(e);
+        }
+    }
+
+    /**
+     * Forgets every indexed block, e.g. because the index belongs to a different chain.
+     */
+    public synchronized void clear() throws IOException {
+        postings.clear();
+        indexedHashes.clear();
+        if (out != null) out.close();
+        out = openForAppend(true);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    // --- Loading ---
+
+    /**
+     * Reads the file in two passes: the first finds the connect records that were not undone by a
+     * later disconnect record, the second indexes only those, so blocks of abandoned branches are
+     * never indexed.
+     * @return The length of the complete records, header included.
+     */
+    private long load() throws IOException {
+        ArrayList<Long> live = new ArrayList<>(); // Offsets of the connect records still on the chain.
+        long end = HEADER_SIZE;
+        try (DataInputStream in = open()) {
+            long offset = HEADER_SIZE;
+            byte[] hash = new byte[32];
+            while (true) {
+                int type = in.read();
+                if (type < 0) break;
+                int height = in.readInt();
+                in.readFully(hash);
+                if (type == CONNECT) {
+                    int count = in.readInt();
+                    if (count < 0) throw new IOException("Invalid key count in " + file);
+                    in.skipNBytes(count * 36L);
+                    if (height != live.size()) throw new IOException("Unexpected height " + height + " in " + file);
+                    live.add(offset);
+                    offset += 1 + 4 + 32 + 4 + count * 36L;
+                } else if (type == DISCONNECT) {
+                    if (height != live.size() - 1) throw new IOException("Unexpected height " + height + " in " + file);
+                    live.remove(height);
+                    offset += 1 + 4 + 32;
+                } else {
+                    throw new IOException("Unknown record type " + type + " in " + file);
+                }
+                end = offset;
+            }
+        } catch (EOFException e) {
+            // The last record is incomplete; everything before 'end' is kept.
+        }
+        try (DataInputStream in = open()) {
+            long position = HEADER_SIZE;
+            byte[] hash = new byte[32];
+            byte[] key = new byte[32];
+            for (long offset : live) {
+                in.skipNBytes(offset - position);
+                in.readByte();
+                int height = in.readInt();
+                in.readFully(hash);
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    in.readFully(key);
+                    postings.computeIfAbsent(Crypto.hex(key), k -> new Postings()).add(height, in.readInt());
+                }
+                indexedHashes.add(Crypto.hex(hash));
+                position = offset + 1 + 4 + 32 + 4 + count * 36L;
+            }
+        }
+        return end;
+    }
+
+    private DataInputStream open() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+            in.close();
+            throw new IOException("Not an address index (or an unsupported version): " + file);
+        }
+        return in;
+    }
+
+    private DataOutputStream openForAppend(boolean truncate) throws IOException {
+        DataOutputStream stream;
+        if (truncate) {
+            stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)));
+            stream.writeInt(MAGIC);
+            stream.writeByte(VERSION);
+            stream.flush();
+        } else {
+            stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)));
+        }
+        return stream;
+    }
+
+    private void removeHeight(String key, int height) {
+        Postings found = postings.get(key);
+        if (found == null) return;
+        found.removeHeight(height);
+        if (found.size == 0) postings.remove(key);
+    }
+
+    private void writeFailed(IOException e) {
+        Log.error("Could not write the address index, it is kept in memory only: " + e.getMessage());
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // Already failed.
+        }
+        out = null;
+    }
+}
@@ -0,0 +1,50 @@
+import java.math.BigDecimal;
+
+/**
+ * Helpers for amounts of coins. Amounts are stored as a long count of base units
+ * (1 coin = 100,000,000 units), so sums are exact and never allocate.
+ */
+public final class Amount {
+
+    // Number of base units in one coin.
+    public static final long COIN = 100_000_000L;
+    // Number of decimal places a coin amount can have.
+    public static final int DECIMALS = 8;
+
+    private Amount() {
+    }
+
+    /**
+     * @param coins A whole number of coins.
+     * @return The same amount in base units.
+     * @throws ArithmeticException if the result does not fit in a long.
+     */
+    public static long ofCoins(long coins) {
+        return Math.multiplyExact(coins, COIN);
+    }
+
+    /**
+     * Parses a decimal coin amount such as "12.5" into base units.
+     * @param text The amount typed by a user.
+     * @return The amount in base units.
+     * @throws NumberFormatException if the text is not a positive amount with at most 8 decimals.
+     */
+    public static long parse(String text) {
+        BigDecimal coins = new BigDecimal(text.trim());
+        if (coins.signum() <= 0) throw new NumberFormatException("Amount must be positive: " + text);
+        try {
+            return coins.movePointRight(DECIMALS).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount has too many decimals or is too large: " + text);
+        }
+    }
+
+    /**
+     * Formats base units as a decimal coin amount, e.g. 1250000000 -> "12.5".
+     * @param units The amount in base units.
+     * @return The amount in coins, without trailing zeros.
+     */
+    public static String format(long units) {
+        return BigDecimal.valueOf(units, DECIMALS).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned, length-prefixed binary encoding for transactions and blocks.
+ *
+ * Layout (all numbers big-endian):
+ *   id          : 1 byte kind (0 = null, 1 = 32-byte hash, 2 = UTF-8 text) + payload
+ *                 hash payload is 32 raw bytes, text payload is a 2-byte length + bytes
+ *   key         : 2-byte length + X.509 encoded public key (length 0 = null)
+ *   bytes       : 2-byte length + raw bytes (length 0xFFFF = null)
+ *   output      : id, key (recipient), 8-byte value in base units, id (parent transaction)
+ *   input       : id (referenced output)
+ *   transaction : 1 byte version, id, key (sender), key (recipient), 8-byte value,
+ *                 bytes (signature), 4-byte input count (-1 = null) + inputs,
+ *                 4-byte output count + outputs
+ *   target      : 32 raw bytes, a 256-bit unsigned number (see Difficulty)
+ *   block       : 1 byte version, id (hash), id (previous hash), 8-byte timestamp, target,
+ *                 8-byte nonce, 4-byte transaction count + (4-byte length + transaction) each
+ *
+ * Hashes and signatures are calculated over these canonical bytes.
+ */
+public class BinaryCodec {
+
+    public static final byte VERSION = 4; // 2: values are fixed-point longs instead of doubles; 3: blocks carry a target; 4: inputs are signed, IDs hash the whole transaction
+
+    private static final byte ID_NULL = 0;
+    private static final byte ID_HASH = 1;
+    private static final byte ID_TEXT = 2;
+    private static final int NULL_LENGTH = 0xFFFF;
+
+    // The fewest bytes each repeated element can take, used to check decoded counts before allocating.
+    private static final int MIN_INPUT_BYTES = 1; // a null id
+    private static final int MIN_OUTPUT_BYTES = 1 + 2 + 8 + 1; // null id, null key, value, null parent id
+    private static final int MIN_TRANSACTION_BYTES = 1 + 1 + 2 + 2 + 8 + 2 + 4 + 4; // no id, keys, signature, inputs or outputs
+
+    // --- Canonical bytes for hashing and signing ---
+
+    /**
+     * @return The bytes a sender signs: version, both keys, the value and the IDs of the spent outputs,
+     *         so a signature cannot be reused with other inputs.
+     */
+    public static byte[] signatureData(Transaction transaction) {
+        return encode(out -> {
+            out.writeByte(VERSION);
+            writeKey(out, transaction.sender);
+            writeKey(out, transaction.recipient);
+            out.writeLong(transaction.value);
+            writeInputs(out, transaction.inputs);
+        });
+    }
+
+    /**
+     * @return The bytes hashed into a transaction ID: the signed data and the signature. The outputs
+     *         follow from these, so every node calculates the same ID for the same transaction.
+     */
+    public static byte[] transactionIdData(Transaction transaction) {
+        return encode(out -> {
+            out.write(signatureData(transaction));
+            writeBytes(out, transaction.signature);
+        });
+    }
+
+    /**
+     * @return The bytes hashed into an output ID: recipient, value and parent transaction.
+     */
+    public static byte[] outputIdData(PublicKey recipient, long value, String parentTransactionId) {
+        return encode(out -> {
+            writeKey(out, recipient);
+            out.writeLong(value);
+            writeId(out, parentTransactionId);
+        });
+    }
+
+    /**
+     * @return The fixed part of a block header, everything except the nonce.
+     */
+    public static byte[] blockHeaderPrefix(String previousHash, long timeStamp, BigInteger target, String merkleRoot) {
+        return encode(out -> {
+            out.writeByte(VERSION);
+            writeId(out, previousHash);
+            out.writeLong(timeStamp);
+            out.write(Difficulty.toBytes(target));
+            writeId(out, merkleRoot);
+        });
+    }
+
+    // --- Encoding ---
+
+    public static byte[] encode(TransactionOutput output) {
+        return encode(out -> writeOutput(out, output));
+    }
+
+    public static byte[] encode(TransactionInput input) {
+        return encode(out -> writeId(out, input.transactionOutputId));
+    }
+
+    public static byte[] encode(Transaction transaction) {
+        return encode(out -> writeTransaction(out, transaction));
+    }
+
+    public static byte[] encode(Block block) {
+        return encode(out -> {
+            out.writeByte(VERSION);
+            writeId(out, block.hash);
+            writeId(out, block.previousHash);
+            out.writeLong(block.getTimeStamp());
+            out.write(Difficulty.toBytes(block.getTarget()));
+            out.writeLong(block.getNonce());
+            out.writeInt(block.transactions.size());
+            for (Transaction transaction : block.transactions) {
+                byte[] encoded = encode(transaction);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+        });
+    }
+
+    // --- Decoding ---
+    // Decoders read straight from the caller's buffer (heap, direct or memory-mapped) and advance its position.
+
+    public static TransactionOutput decodeOutput(ByteBuffer in) {
+        String id = readId(in);
+        PublicKey recipient = readKey(in);
+        long value = in.getLong();
+        String parentTransactionId = readId(in);
+        return new TransactionOutput(id, recipient, value, parentTransactionId);
+    }
+
+    public static TransactionInput decodeInput(ByteBuffer in) {
+        return new TransactionInput(readId(in));
+    }
+
+    public static Transaction decodeTransaction(ByteBuffer in) {
+        checkVersion(in.get());
+        String transactionId = readId(in);
+        PublicKey sender = readKey(in);
+        PublicKey recipient = readKey(in);
+        long value = in.getLong();
+        byte[] signature = readBytes(in);
+
+        ArrayList<TransactionInput> inputs = null;
+        int inputCount = in.getInt();
+        if (inputCount != -1) {
+            inputs = new ArrayList<>(checkCount(in, inputCount, MIN_INPUT_BYTES));
+            for (int i = 0; i < inputCount; i++) inputs.add(decodeInput(in));
+        }
+        Transaction transaction = new Transaction(sender, recipient, value, inputs);
+        transaction.transactionId = transactionId;
+        transaction.signature = signature;
+        int outputCount = checkCount(in, in.getInt(), MIN_OUTPUT_BYTES);
+        transaction.outputs.ensureCapacity(outputCount);
+        for (int i = 0; i < outputCount; i++) transaction.outputs.add(decodeOutput(in));
+        return transaction;
+    }
+
+    /**
+     * The fixed fields at the start of an encoded block, readable without decoding its transactions.
+     */
+    public static class BlockHeader {
+        public final String hash;
+        public final String previousHash;
+        public final long timeStamp;
+        public final BigInteger target;
+        public final long nonce;
+        public final int transactionCount;
+
+        BlockHeader(String hash, String previousHash, long timeStamp, BigInteger target, long nonce, int transactionCount) {
+            this.hash = hash;
+            this.previousHash = previousHash;
+            this.timeStamp = timeStamp;
+            this.target = target;
+            this.nonce = nonce;
+            this.transactionCount = transactionCount;
+        }
+    }
+
+    /**
+     * Reads only the header of an encoded block. The buffer is left at the transaction count.
+     */
+    public static BlockHeader decodeBlockHeader(ByteBuffer in) {
+        checkVersion(in.get());
+        String hash = readId(in);
+        String previousHash = readId(in);
+        long timeStamp = in.getLong();
+        byte[] target = new byte[32];
+        in.get(target);
+        long nonce = in.getLong();
+        int transactionCount = in.getInt(in.position());
+        return new BlockHeader(hash, previousHash, timeStamp, Difficulty.fromBytes(target), nonce, transactionCount);
+    }
+
+    public static Block decodeBlock(ByteBuffer in) {
+        BlockHeader header = decodeBlockHeader(in);
+        List<ByteBuffer> slices = transactionSlices(in);
+        ArrayList<Transaction> transactions = new ArrayList<>(slices.size());
+        for (ByteBuffer slice : slices) {
+            transactions.add(decodeTransaction(slice));
+        }
+        return new Block(header.hash, header.previousHash, header.timeStamp, header.target, header.nonce, transactions);
+    }
+
+    /**
+     * Splits the transaction section of an encoded block into views of the same memory.
+     * Nothing is copied, so a caller can decode (or just hash) only the transactions it needs.
+     * @param in A buffer positioned at the transaction count of an encoded block.
+     * @return One read-only slice per transaction.
+     * @throws IllegalArgumentException if a count or length does not fit in the buffer.
+     */
+    public static List<ByteBuffer> transactionSlices(ByteBuffer in) {
+        int count = checkCount(in, in.getInt(), 4 + MIN_TRANSACTION_BYTES);
+        List<ByteBuffer> slices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = in.getInt();
+            if (length < MIN_TRANSACTION_BYTES || length > in.remaining()) {
+                throw new IllegalArgumentException("Bad transaction length: " + length);
+            }
+            ByteBuffer slice = in.slice(in.position(), length).asReadOnlyBuffer();
+            in.position(in.position() + length);
+            slices.add(slice);
+        }
+        return slices;
+    }
+
+    // --- Field helpers ---
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(Body body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            body.write(out);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen when writing to memory.
+        }
+    }
+
+    private static void writeTransaction(DataOutputStream out, Transaction transaction) throws IOException {
+        out.writeByte(VERSION);
+        writeId(out, transaction.transactionId);
+        writeKey(out, transaction.sender);
+        writeKey(out, transaction.recipient);
+        out.writeLong(transaction.value);
+        writeBytes(out, transaction.signature);
+        writeInputs(out, transaction.inputs);
+        out.writeInt(transaction.outputs.size());
+        for (TransactionOutput output : transaction.outputs) writeOutput(out, output);
+    }
+
+    private static void writeInputs(DataOutputStream out, List<TransactionInput> inputs) throws IOException {
+        if (inputs == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(inputs.size());
+            for (TransactionInput input : inputs) writeId(out, input.transactionOutputId);
+        }
+    }
+
+    private static void writeOutput(DataOutputStream out, TransactionOutput output) throws IOException {
+        writeId(out, output.id);
+        writeKey(out, output.recipient);
+        out.writeLong(output.value);
+        writeId(out, output.parentTransactionId);
+    }
+
+    /**
+     * IDs are usually 64-character hex hashes; those are stored as their 32 raw bytes.
+     */
+    private static void writeId(DataOutputStream out, String id) throws IOException {
+        if (id == null) {
+            out.writeByte(ID_NULL);
+        } else if (isHashHex(id)) {
+            out.writeByte(ID_HASH);
+            out.write(Crypto.hexToBytes(id));
+        } else {
+            out.writeByte(ID_TEXT);
+            writeBytes(out, id.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String readId(ByteBuffer in) {
+        byte kind = in.get();
+        if (kind == ID_NULL) return null;
+        if (kind == ID_HASH) {
+            byte[] hash = new byte[32];
+            in.get(hash);
+            return Transaction.toHex(hash);
+        }
+        if (kind == ID_TEXT) return new String(readBytes(in), StandardCharsets.UTF_8);
+        throw new IllegalArgumentException("Unknown id kind: " + kind);
+    }
+
+    private static void writeKey(DataOutputStream out, PublicKey key) throws IOException {
+        if (key == null) {
+            out.writeShort(0);
+            return;
+        }
+        byte[] encoded = Crypto.encoded(key);
+        out.writeShort(encoded.length);
+        out.write(encoded);
+    }
+
+    private static PublicKey readKey(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length == 0) return null;
+        byte[] encoded = new byte[length];
+        in.get(encoded);
+        return Crypto.decodeKey(encoded);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeShort(NULL_LENGTH);
+            return;
+        }
+        if (bytes.length >= NULL_LENGTH) throw new IllegalArgumentException("Field too long: " + bytes.length);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    static boolean isHashHex(String id) {
+        if (id.length() != 64) return false;
+        for (int i = 0; i < 64; i++) {
+            char c = id.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks a decoded element count against the bytes left, so a forged count in untrusted
+     * input is rejected before anything is allocated for it.
+     * @param minimumElementBytes The fewest bytes one encoded element can take.
+     * @return The count.
+     * @throws IllegalArgumentException if the count is negative or the elements cannot fit.
+     */
+    private static int checkCount(ByteBuffer in, int count, int minimumElementBytes) {
+        if (count < 0 || count > in.remaining() / minimumElementBytes) {
+            throw new IllegalArgumentException("Bad element count: " + count);
+        }
+        return count;
+    }
+
+    private static void checkVersion(byte version) {
+        if (version != VERSION) throw new IllegalArgumentException("Unsupported encoding version: " + version);
+    }
+}
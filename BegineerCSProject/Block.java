@@ -1,102 +1,295 @@
-import java.util.ArrayList;
-import java.util.Date;
-
-public class Block {
-
-    // The unique digital fingerprint of this block.
-    public String hash;
-    // The hash of the previous block in the chain.
-    public String previousHash;
-    // The list of transactions contained within this block.
-    public ArrayList<Transaction> transactions = new ArrayList<>();
-    // Timestamp of when the block was created.
-    private long timeStamp;
-    // A random number used in the mining process (Proof of Work).
-    private int nonce;
-
-    /**
-     * Constructor for the Block class.
-     * @param previousHash The hash of the block before this one in the chain.
-     */
-    public Block(String previousHash) {
-        this.previousHash = previousHash;
-        this.timeStamp = new Date().getTime();
-        // Calculate the hash for this new block right away.
-        this.hash = calculateHash();
-    }
-
-    /**
-     * Calculates the unique hash for this block.
-     * The hash is calculated based on the previous hash, the timestamp, the nonce,
-     * and the Merkle root of the transactions.
-     * @return A SHA-256 hash string.
-     */
-    public String calculateHash() {
-        String calculatedhash = Transaction.applySha256(
-                previousHash +
-                Long.toString(timeStamp) +
-                Integer.toString(nonce) +
-                getMerkleRoot() // Include the transactions' root hash
-        );
-        return calculatedhash;
-    }
-
-    /**
-     * Simulates "Proof of Work". This method will repeatedly calculate the block's hash,
-     * incrementing the nonce, until it finds a hash that meets the difficulty requirement
-     * (i.e., starts with a certain number of zeros).
-     * @param difficulty The number of leading zeros required for the hash.
-     */
-    public void mineBlock(int difficulty) {
-        String target = new String(new char[difficulty]).replace('\0', '0'); // Create a string with 'difficulty' number of zeros
-        while (!hash.substring(0, difficulty).equals(target)) {
-            nonce++;
-            hash = calculateHash();
-        }
-        System.out.println("Block Mined!!! : " + hash);
-    }
-
-    /**
-     * Adds a transaction to this block.
-     * @param transaction The transaction to be added.
-     * @return true if the transaction was added successfully, false otherwise.
-     */
-    public boolean addTransaction(Transaction transaction) {
-        // Process transaction and check if valid, unless block is genesis block then ignore.
-        if (transaction == null) return false;
-        if ((!previousHash.equals("0"))) {
-            if ((!transaction.verifySignature())) {
-                System.out.println("Transaction failed to verify");
-                return false;
-            }
-        }
-        transactions.add(transaction);
-        System.out.println("Transaction Successfully added to Block");
-        return true;
-    }
-
-    /**
-     * Calculates the Merkle Root for the list of transactions.
-     * The Merkle Root is a hash that represents the entire set of transactions.
-     * This is a simplified implementation for our project.
-     * @return The Merkle Root hash as a string.
-     */
-    private String getMerkleRoot() {
-        int count = transactions.size();
-        ArrayList<String> previousTreeLayer = new ArrayList<>();
-        for (Transaction transaction : transactions) {
-            previousTreeLayer.add(transaction.transactionId);
-        }
-        ArrayList<String> treeLayer = previousTreeLayer;
-        while (count > 1) {
-            treeLayer = new ArrayList<>();
-            for (int i = 1; i < previousTreeLayer.size(); i += 2) {
-                treeLayer.add(Transaction.applySha256(previousTreeLayer.get(i - 1) + previousTreeLayer.get(i)));
-            }
-            count = treeLayer.size();
-            previousTreeLayer = treeLayer;
-        }
-        String merkleRoot = (treeLayer.size() == 1) ? treeLayer.get(0) : "";
-        return merkleRoot;
-    }
-}
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+public class Block {
+
+    // The false positive rate block filters are sized for.
+    public static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    // The unique digital fingerprint of this block.
+    public String hash;
+    // The hash of the previous block in the chain.
+    public String previousHash;
+    // The list of transactions contained within this block. Read-only: transactions are added with addTransaction().
+    public final List<Transaction> transactions;
+    private final ArrayList<Transaction> transactionList;
+    // Timestamp of when the block was created, updated when mining starts.
+    private long timeStamp;
+    // The block's hash must not be greater than this 256-bit number (see Difficulty).
+    private BigInteger target;
+    // A random number used in the mining process (Proof of Work).
+    private long nonce;
+    // Cached Merkle tree of the transactions, updated as transactions are added.
+    private MerkleTree merkleTree = new MerkleTree();
+    // The transaction IDs the cached tree was built from, to notice an ID that changed since.
+    private ArrayList<String> merkleIds = new ArrayList<>();
+    // Cached Bloom filter over the transactions' involved keys, built on first use.
+    private volatile BloomFilter filter;
+    private int filteredTransactions;
+    // Outputs created and spent by the transactions added so far (only used while building the block).
+    private final HashMap<String, TransactionOutput> createdInBlock = new HashMap<>();
+    private final HashSet<String> spentInBlock = new HashSet<>();
+    // How many of the first transactions are known to have valid signatures.
+    private volatile int verifiedTransactions;
+
+    /**
+     * Constructor for the Block class.
+     * @param previousHash The hash of the block before this one in the chain.
+     */
+    public Block(String previousHash) {
+        this.previousHash = previousHash;
+        this.transactionList = new ArrayList<>();
+        this.transactions = Collections.unmodifiableList(transactionList);
+        this.timeStamp = new Date().getTime();
+        this.target = Difficulty.fromLeadingZeros(0); // The easiest target, until mineBlock() sets the one the ledger expects.
+        // Calculate the hash for this new block right away.
+        this.hash = calculateHash();
+    }
+
+    /**
+     * Recreates a block that was already mined, e.g. when decoding it from bytes.
+     */
+    Block(String hash, String previousHash, long timeStamp, BigInteger target, long nonce, ArrayList<Transaction> transactions) {
+        this.hash = hash;
+        this.previousHash = previousHash;
+        this.timeStamp = timeStamp;
+        this.target = target;
+        this.nonce = nonce;
+        this.transactionList = (transactions == null) ? new ArrayList<>() : transactions;
+        this.transactions = Collections.unmodifiableList(transactionList);
+    }
+
+    /**
+     * Calculates the unique hash for this block.
+     * The hash is calculated based on the previous hash, the timestamp, the target, the nonce,
+     * and the Merkle root of the transactions.
+     * @return A SHA-256 hash string.
+     */
+    public String calculateHash() {
+        return Transaction.applySha256(getHeaderPrefix(), nonce);
+    }
+
+    /**
+     * Builds the fixed part of the block header: everything that is hashed except the nonce.
+     * While mining, only the nonce changes, so miners compute this once and reuse it.
+     * @return The header bytes that come before the nonce.
+     */
+    public byte[] getHeaderPrefix() {
+        return BinaryCodec.blockHeaderPrefix(previousHash, timeStamp, target, getMerkleRoot()); // Include the transactions' root hash
+    }
+
+    /**
+     * Simulates "Proof of Work". The nonce space is searched in parallel by the shared
+     * {@link Miner} until a hash is found that is not greater than the target.
+     * The timestamp is set to the moment mining starts.
+     * @param target The target, usually {@link Ledger#getNextTarget()}.
+     * @return true if the block was mined; false if mining was cancelled or interrupted first.
+     */
+    public boolean mineBlock(BigInteger target) {
+        long start = System.nanoTime();
+        this.target = target;
+        this.timeStamp = new Date().getTime();
+        if (!Blockchain.miner.mine(this)) return false;
+        Blockchain.metrics.mineTime.recordSince(start);
+        Log.info("Block Mined!!! : " + hash + " (" + Math.round(Blockchain.miner.getHashRate()) + " hashes/s)");
+        return true;
+    }
+
+    /**
+     * @return The time (in milliseconds) at which this block was created.
+     */
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * @return The target the block's hash must meet.
+     */
+    public BigInteger getTarget() {
+        return target;
+    }
+
+    /**
+     * @return The nonce that was found (or is being tried) for this block.
+     */
+    public long getNonce() {
+        return nonce;
+    }
+
+    /**
+     * Sets the nonce found by a miner and recalculates the block's hash.
+     * @param nonce The winning nonce.
+     */
+    void setNonce(long nonce) {
+        this.nonce = nonce;
+        this.hash = calculateHash();
+    }
+
+    /**
+     * Adds a transaction to this block, processing it against the default ledger.
+     * @param transaction The transaction to be added.
+     * @return true if the transaction was added successfully, false otherwise.
+     */
+    public boolean addTransaction(Transaction transaction) {
+        return addTransaction(transaction, Blockchain.ledger);
+    }
+
+    /**
+     * Adds a transaction to this block.
+     * Inputs are looked up in the ledger, but outputs created and spent earlier in this block
+     * are taken into account, so one block can hold a chain of dependent transactions and
+     * never spends the same output twice.
+     * @param transaction The transaction to be added.
+     * @param ledger The ledger this block will be applied to.
+     * @return true if the transaction was added successfully, false otherwise.
+     */
+    public boolean addTransaction(Transaction transaction, Ledger ledger) {
+        // Process transaction and check if valid, unless block is genesis block then ignore.
+        if (transaction == null) return false;
+        if ((!previousHash.equals("0"))) {
+            Function<String, TransactionOutput> findUTXO = id -> {
+                if (spentInBlock.contains(id)) return null;
+                TransactionOutput created = createdInBlock.get(id);
+                return (created != null) ? created : ledger.getUTXO(id);
+            };
+            if ((!transaction.processTransaction(findUTXO, ledger.minimumTransaction))) {
+                Blockchain.metrics.transactionsRejected.increment();
+                Log.warn("Transaction failed to process. Discarded.");
+                return false;
+            }
+            for (TransactionInput input : transaction.inputs) {
+                spentInBlock.add(input.transactionOutputId);
+            }
+        }
+        for (TransactionOutput output : transaction.outputs) {
+            createdInBlock.put(output.id, output);
+        }
+        // processTransaction() has just verified the signature, except in the genesis block.
+        boolean verified = !previousHash.equals("0") && verifiedTransactions == transactionList.size();
+        transactionList.add(transaction);
+        if (verified) verifiedTransactions = transactionList.size();
+        if (merkleIds.size() == transactionList.size() - 1) {
+            merkleTree.add(transaction.transactionId);
+            merkleIds.add(transaction.transactionId);
+        }
+        Log.debug("Transaction Successfully added to Block");
+        return true;
+    }
+
+    /**
+     * Checks the signatures of all transactions in this block in parallel.
+     * @return One result per transaction, in block order: true if its signature is valid.
+     */
+    public boolean[] verifySignatures() {
+        boolean[] results = Blockchain.signatureVerifier.verifyAll(transactions);
+        int valid = 0;
+        while (valid < results.length && results[valid]) valid++;
+        verifiedTransactions = valid;
+        return results;
+    }
+
+    /**
+     * Checks that every transaction in this block has a valid signature. Signatures that were already
+     * verified, by {@link #verifySignatures()} or when the transaction was added, are not checked again.
+     * @return true if all signatures are valid.
+     */
+    public boolean hasValidSignatures() {
+        if (verifiedTransactions == transactions.size()) return true;
+        for (boolean valid : verifySignatures()) {
+            if (!valid) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return How many of the first transactions are known to have valid signatures.
+     */
+    int getVerifiedTransactions() {
+        return verifiedTransactions;
+    }
+
+    /**
+     * Records that the first 'count' transactions are known to have valid signatures, e.g. because
+     * they were processed by the {@link BlockTemplate} this block was mined from.
+     */
+    void setVerifiedTransactions(int count) {
+        verifiedTransactions = count;
+    }
+
+    /**
+     * Returns the Merkle Root for the list of transactions.
+     * The Merkle Root is a hash that represents the entire set of transactions.
+     * The tree is cached and grown by addTransaction, so mining does not rehash it.
+     * @return The Merkle Root hash as a string.
+     */
+    public String getMerkleRoot() {
+        // Rebuild only if a transaction's ID changed after it was added (the IDs are usually the
+        // very same String objects, so comparing them is cheap next to rehashing the tree).
+        boolean current = merkleIds.size() == transactionList.size();
+        for (int i = 0; current && i < merkleIds.size(); i++) {
+            current = Objects.equals(merkleIds.get(i), transactionList.get(i).transactionId);
+        }
+        if (!current) {
+            MerkleTree tree = new MerkleTree();
+            ArrayList<String> ids = new ArrayList<>(transactionList.size());
+            for (Transaction transaction : transactionList) {
+                tree.add(transaction.transactionId);
+                ids.add(transaction.transactionId);
+            }
+            merkleTree = tree;
+            merkleIds = ids;
+        }
+        return merkleTree.getRoot();
+    }
+
+    /**
+     * The Merkle tree pairs an odd last ID with itself, so repeating the last transactions of a block
+     * gives the same root, and the same hash, as the block itself. A block whose IDs repeat is such a
+     * copy (a valid block cannot hold the same transaction twice), and must not be taken for the original.
+     * @return true if two of the block's transactions have the same ID.
+     */
+    public boolean hasDuplicateTransactions() {
+        HashSet<String> ids = new HashSet<>();
+        for (Transaction transaction : transactionList) {
+            if (!ids.add(transaction.transactionId)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds a proof that a transaction is included in this block.
+     * @param index The position of the transaction in this block.
+     * @return A proof that can be checked against getMerkleRoot().
+     */
+    public MerkleProof getMerkleProof(int index) {
+        getMerkleRoot(); // Make sure the cached tree is up to date.
+        return merkleTree.getProof(index);
+    }
+
+    /**
+     * Returns a Bloom filter over every address and output ID the block's transactions involve
+     * (see {@link Transaction#getInvolvedKeys()}). A light wallet only has to download the blocks
+     * whose filter matches one of its addresses or outputs.
+     * @return The filter, sized for a false positive rate of {@value #FILTER_FALSE_POSITIVE_RATE}.
+     */
+    public BloomFilter getFilter() {
+        BloomFilter cached = filter;
+        if (cached != null && filteredTransactions == transactions.size()) return cached;
+        ArrayList<String> keys = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            keys.addAll(transaction.getInvolvedKeys());
+        }
+        BloomFilter built = new BloomFilter(keys.size(), FILTER_FALSE_POSITIVE_RATE);
+        for (String key : keys) built.add(key);
+        filteredTransactions = transactions.size();
+        filter = built;
+        return built;
+    }
+}
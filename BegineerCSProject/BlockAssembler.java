@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class BlockAssembler implements Runnable {
+
+    private final Ledger ledger;
+    private final Mempool mempool;
+    // A block is started as soon as this many transactions are waiting...
+    private final int maxTransactions;
+    // ...or when the oldest waiting transaction has waited this long.
+    private final long maxWaitMillis;
+    // While a block is mined, its template takes in new transactions and a fresh timestamp this often.
+    private final long refreshMillis = 1000;
+    private final ScheduledExecutorService refresher;
+    // Where mined blocks the ledger keeps are written (null = memory only).
+    private volatile BlockStore store;
+    // Run whenever no transaction arrived within maxWaitMillis (null = nothing to do when idle).
+    private volatile Runnable idleTask;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Constructor for the BlockAssembler class.
+     * @param ledger The ledger new blocks are built on and applied to.
+     * @param mempool Where submitted transactions wait.
+     * @param maxTransactions The largest number of transactions per block.
+     * @param maxWaitMillis How long to wait for more transactions before mining a partial block.
+     */
+    public BlockAssembler(Ledger ledger, Mempool mempool, int maxTransactions, long maxWaitMillis) {
+        this.ledger = ledger;
+        this.mempool = mempool;
+        this.maxTransactions = maxTransactions;
+        this.maxWaitMillis = maxWaitMillis;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "template-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts assembling and mining blocks on a background thread.
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "block-assembler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background thread. Mining of the current block is interrupted; the block is not
+     * applied and its transactions go back to the mempool.
+     */
+    public synchronized void stop() throws InterruptedException {
+        running = false;
+        if (thread == null) return;
+        thread.interrupt();
+        thread.join();
+        thread = null;
+    }
+
+    /**
+     * Sets where mined blocks are written.
+     * @param store The block store of this assembler's ledger, or null to keep blocks in memory only.
+     */
+    public void setStore(BlockStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Sets work to do during idle periods, such as consolidating wallets' small UTXOs.
+     * @param idleTask Run on the assembler thread when no transaction arrived for a while.
+     */
+    public void setIdleTask(Runnable idleTask) {
+        this.idleTask = idleTask;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            List<Transaction> batch;
+            try {
+                batch = mempool.drain(maxTransactions, maxWaitMillis);
+            } catch (InterruptedException e) {
+                continue; // stop() was called; the loop condition decides.
+            }
+            if (!batch.isEmpty()) {
+                assemble(batch);
+            } else if (idleTask != null) {
+                idleTask.run();
+            }
+        }
+    }
+
+    /**
+     * Puts a batch of transactions into a block template, mines it and applies the block to the ledger.
+     * While the block is mined, transactions that arrive meanwhile are added to the template and its
+     * timestamp is kept current, without restarting the nonce search.
+     * Transactions that fail to process are dropped. Their inputs stay claimed in the mempool
+     * until the block is applied, so a wallet cannot spend them again in the meantime. Transactions
+     * that were in the template but not in the mined block go back to the mempool, and so do all of
+     * them if mining stopped before a block was found or the block did not join the best chain.
+     */
+    private void assemble(List<Transaction> batch) {
+        BlockTemplate template = ledger.createTemplate();
+        List<Transaction> taken = new ArrayList<>(batch);
+        List<Transaction> added = new ArrayList<>(); // Every transaction the template accepted.
+        for (Transaction transaction : batch) {
+            if (template.addTransaction(transaction)) added.add(transaction);
+        }
+        Block block = null;
+        boolean appended = false;
+        if (template.size() > 0) {
+            ScheduledFuture<?> refresh = refresher.scheduleWithFixedDelay(() -> {
+                synchronized (taken) {
+                    try {
+                        List<Transaction> more = mempool.drain(maxTransactions - template.size(), 0);
+                        taken.addAll(more);
+                        for (Transaction transaction : more) {
+                            if (template.addTransaction(transaction)) added.add(transaction);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    template.refresh();
+                }
+            }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            block = Blockchain.miner.mine(template);
+            refresh.cancel(false);
+            if (block == null) {
+                Log.warn("Mining stopped before the block was found; its transactions go back to the mempool.");
+            } else {
+                Blockchain.metrics.mineTime.recordSince(start);
+                Log.info("Block Mined!!! : " + block.hash + " (" + Math.round(Blockchain.miner.getHashRate()) + " hashes/s)");
+                appended = append(block);
+                if (!appended) {
+                    Log.warn("Mined block did not become part of the best chain; its transactions go back to the mempool.");
+                }
+            }
+        }
+        synchronized (taken) { // Waits for a refresh that is still running.
+            for (Transaction transaction : taken) {
+                mempool.release(transaction);
+            }
+            // A transaction added after the winning header was published is not in the block, and if
+            // mining stopped (e.g. the template went stale) or the ledger refused the block, no
+            // transaction is on the chain. They go back to the mempool, to be processed again for the next block.
+            Set<Transaction> mined = Collections.newSetFromMap(new IdentityHashMap<>());
+            if (appended) mined.addAll(block.transactions);
+            for (Transaction transaction : added) {
+                if (mined.contains(transaction)) continue;
+                if (!mempool.submit(transaction)) Log.warn("Could not return a transaction to the mempool; it is dropped.");
+            }
+        }
+    }
+
+    /**
+     * Gives a mined block to the ledger. Blocks the ledger keeps, on the best chain or on a side
+     * branch, are also written to the store.
+     * @return true if the block is now part of the best chain.
+     */
+    private boolean append(Block block) {
+        Ledger.Result result = ledger.acceptBlock(block);
+        boolean kept = result == Ledger.Result.CONNECTED || result == Ledger.Result.REORGANIZED
+                || result == Ledger.Result.SIDE_BRANCH;
+        BlockStore store = this.store;
+        if (kept && store != null) {
+            try {
+                store.append(block);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return result == Ledger.Result.CONNECTED || result == Ledger.Result.REORGANIZED;
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, on-disk store of mined blocks.
+ *
+ * Blocks are written one after another into segment files (blocks-00000.dat, blocks-00001.dat, ...).
+ * Every record is: 4-byte length, 4-byte CRC32 of the payload, payload (BinaryCodec block encoding).
+ * Blocks are kept in the order they were appended. When the chain has forks, that includes
+ * blocks of side branches, so a block's position ("height" below) is not always its height
+ * on the best chain.
+ * A separate index file has one fixed-size entry per block, in that order:
+ * 4-byte segment number, 8-byte offset, 4-byte record length, 32-byte block hash.
+ * Records are read back through memory-mapped segments, so loading a block does not copy the file.
+ */
+public class BlockStore implements Closeable {
+
+    private static final int RECORD_HEADER = 8;
+    private static final int INDEX_ENTRY = 4 + 8 + 4 + 32;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int syncEvery;
+
+    // Where every block lives, by height. Only the first 'count' entries are used.
+    private int[] segmentOfHeight = new int[1024];
+    private long[] offsetOfHeight = new long[1024];
+    private int count;
+    // Height of every block, by hash.
+    private final HashMap<String, Integer> heightOfHash = new HashMap<>();
+
+    private FileChannel activeSegment;
+    private int activeSegmentNumber;
+    private final FileChannel indexFile;
+    // Read-only mappings, one per segment. The active segment is remapped when it grows.
+    private final HashMap<Integer, MappedByteBuffer> mappings = new HashMap<>();
+    // Blocks appended since the last fsync.
+    private int unsynced;
+
+    /**
+     * Opens (or creates) a block store in a directory.
+     * @param directory Where the segment and index files are kept.
+     * @param segmentSize Size after which a new segment file is started.
+     * @param syncEvery How many appended blocks are batched before the files are forced to disk.
+     */
+    public BlockStore(Path directory, long segmentSize, int syncEvery) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncEvery = Math.max(1, syncEvery);
+        Files.createDirectories(directory);
+        indexFile = FileChannel.open(directory.resolve("index.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loadIndex();
+    }
+
+    /**
+     * Opens a store with 64 MB segments that is synced every 16 blocks.
+     */
+    public BlockStore(Path directory) throws IOException {
+        this(directory, 64L * 1024 * 1024, 16);
+    }
+
+    /**
+     * @return The number of blocks in the store.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Appends a mined block. The write reaches the disk at the next batched sync.
+     * @param block The block to store. It becomes the block at height size().
+     */
+    public synchronized void append(Block block) throws IOException {
+        byte[] payload = BinaryCodec.encode(block);
+        if (activeSegment.size() > 0 && activeSegment.size() + RECORD_HEADER + payload.length > segmentSize) {
+            sync(); // Close off the full segment before starting the next one.
+            activeSegment.close();
+            openSegment(activeSegmentNumber + 1);
+        }
+        long offset = activeSegment.size();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        writeFully(activeSegment, record, offset);
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+        entry.putInt(activeSegmentNumber).putLong(offset).putInt(record.limit()).put(hashBytes(block.hash)).flip();
+        writeFully(indexFile, entry, (long) size() * INDEX_ENTRY);
+        remember(activeSegmentNumber, offset, block.hash);
+
+        if (++unsynced >= syncEvery) sync();
+    }
+
+    /**
+     * Reads a block by height.
+     * @param height The position of the block in the chain (0 is the genesis block).
+     * @return The decoded block.
+     */
+    public synchronized Block get(int height) throws IOException {
+        if (height < 0 || height >= count) throw new IndexOutOfBoundsException("No block at height " + height);
+        ByteBuffer record = record(segmentOfHeight[height], offsetOfHeight[height]);
+        if (record == null) throw new IOException("Block " + height + " is corrupt");
+        record.position(RECORD_HEADER);
+        return BinaryCodec.decodeBlock(record);
+    }
+
+    /**
+     * Reads only the header of a block, which is much cheaper than decoding the whole block.
+     * @param height The position of the block in the store.
+     * @return The header.
+     */
+    public synchronized BinaryCodec.BlockHeader getHeader(int height) throws IOException {
+        if (height < 0 || height >= count) throw new IndexOutOfBoundsException("No block at height " + height);
+        ByteBuffer record = record(segmentOfHeight[height], offsetOfHeight[height]);
+        if (record == null) throw new IOException("Block " + height + " is corrupt");
+        record.position(RECORD_HEADER);
+        return BinaryCodec.decodeBlockHeader(record);
+    }
+
+    /**
+     * Reads a block by hash.
+     * @param hash The block hash.
+     * @return The decoded block, or null if the store does not have it.
+     */
+    public synchronized Block get(String hash) throws IOException {
+        Integer height = heightOfHash.get(hash);
+        return (height == null) ? null : get(height);
+    }
+
+    /**
+     * @param hash The block hash.
+     * @return The height of the block, or -1 if the store does not have it.
+     */
+    public synchronized int heightOf(String hash) {
+        return heightOfHash.getOrDefault(hash, -1);
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public synchronized void sync() throws IOException {
+        if (unsynced == 0) return;
+        activeSegment.force(false);
+        indexFile.force(false);
+        unsynced = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        activeSegment.close();
+        indexFile.close();
+        mappings.clear();
+    }
+
+    /**
+     * Loads the index file and then scans past its end, so blocks that were written
+     * but whose index entry never reached the disk are recovered.
+     */
+    private void loadIndex() throws IOException {
+        long entries = indexFile.size() / INDEX_ENTRY;
+        MappedByteBuffer index = indexFile.map(FileChannel.MapMode.READ_ONLY, 0, entries * INDEX_ENTRY);
+        int lastSegment = 0;
+        long nextOffset = 0;
+        byte[] hash = new byte[32];
+        HashMap<Integer, Long> segmentSizes = new HashMap<>();
+        for (long i = 0; i < entries; i++) {
+            int segment = index.getInt();
+            long offset = index.getLong();
+            int length = index.getInt();
+            index.get(hash);
+            long available = segmentSizes.computeIfAbsent(segment, this::sizeOfSegment);
+            if (available < offset + length) break;
+            remember(segment, offset, Transaction.toHex(hash));
+            lastSegment = segment;
+            nextOffset = offset + length;
+        }
+        indexFile.truncate((long) size() * INDEX_ENTRY); // Drop entries that point past the data.
+
+        openSegment(lastSegment);
+        // Recover complete records that were appended after the last index entry.
+        while (nextOffset + RECORD_HEADER <= activeSegment.size()) {
+            ByteBuffer record = record(lastSegment, nextOffset);
+            if (record == null) break;
+            record.position(RECORD_HEADER);
+            Block block = BinaryCodec.decodeBlock(record);
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+            entry.putInt(lastSegment).putLong(nextOffset).putInt(record.limit()).put(hashBytes(block.hash)).flip();
+            writeFully(indexFile, entry, (long) size() * INDEX_ENTRY);
+            remember(lastSegment, nextOffset, block.hash);
+            nextOffset += record.limit();
+        }
+        activeSegment.truncate(nextOffset); // Throw away a half-written record at the end, if any.
+        mappings.remove(lastSegment);
+    }
+
+    /**
+     * Returns a view of one record (header and payload), or null if it is incomplete or corrupt.
+     */
+    private ByteBuffer record(int segment, long offset) throws IOException {
+        MappedByteBuffer mapping = mappings.get(segment);
+        if (mapping == null || mapping.capacity() < offset + RECORD_HEADER) {
+            mapping = map(segment);
+        }
+        if (mapping.capacity() < offset + RECORD_HEADER) return null;
+        int length = mapping.getInt((int) offset);
+        if (length < 0 || mapping.capacity() < offset + RECORD_HEADER + length) {
+            mapping = map(segment); // The active segment may have grown since it was mapped.
+            if (length < 0 || mapping.capacity() < offset + RECORD_HEADER + length) return null;
+        }
+        ByteBuffer record = mapping.slice((int) offset, RECORD_HEADER + length);
+        CRC32 crc = new CRC32();
+        crc.update(record.slice(RECORD_HEADER, length));
+        if ((int) crc.getValue() != record.getInt(4)) return null;
+        return record;
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mappings.put(segment, mapping);
+            return mapping;
+        }
+    }
+
+    private void openSegment(int number) throws IOException {
+        activeSegmentNumber = number;
+        activeSegment = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void remember(int segment, long offset, String hash) {
+        if (count == offsetOfHeight.length) {
+            segmentOfHeight = Arrays.copyOf(segmentOfHeight, count * 2);
+            offsetOfHeight = Arrays.copyOf(offsetOfHeight, count * 2);
+        }
+        segmentOfHeight[count] = segment;
+        offsetOfHeight[count] = offset;
+        heightOfHash.put(hash, count);
+        count++;
+    }
+
+    private long sizeOfSegment(int number) {
+        try {
+            Path path = segmentPath(number);
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("blocks-%05d.dat", number));
+    }
+
+    private static byte[] hashBytes(String hash) {
+        byte[] bytes = new byte[32];
+        if (!Crypto.hexToBytes(hash, bytes)) throw new IllegalArgumentException("Not a block hash: " + hash);
+        return bytes;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A block that is still being filled while it is mined. Miners poll {@link #getHeader()}; whenever
+ * transactions are added or the timestamp is refreshed, a new header is published and miners
+ * switch to it on their next hash, carrying on with their nonce sequence instead of starting over.
+ * A template goes stale when another block becomes the tip of the ledger.
+ */
+public class BlockTemplate {
+
+    /**
+     * One version of the template: everything that is hashed except the nonce. Never changes.
+     */
+    public static final class Header {
+        public final String previousHash;
+        public final long timeStamp;
+        public final BigInteger target;
+        public final List<Transaction> transactions;
+        // How many of the first transactions are known to have valid signatures (see Block#hasValidSignatures()).
+        final int verifiedTransactions;
+        // The bytes hashed before the nonce, and the target in the form Miner compares hashes with.
+        final byte[] prefix;
+        final byte[] targetBytes;
+
+        private Header(String previousHash, long timeStamp, BigInteger target, List<Transaction> transactions,
+                       String merkleRoot, int verifiedTransactions) {
+            this.previousHash = previousHash;
+            this.timeStamp = timeStamp;
+            this.target = target;
+            this.transactions = transactions;
+            this.verifiedTransactions = verifiedTransactions;
+            this.prefix = BinaryCodec.blockHeaderPrefix(previousHash, timeStamp, target, merkleRoot);
+            this.targetBytes = Difficulty.toBytes(target);
+        }
+
+        /**
+         * The header of a block that is mined on its own, without a template.
+         */
+        Header(Block block) {
+            this(block.previousHash, block.getTimeStamp(), block.getTarget(), block.transactions, block.getMerkleRoot(),
+                    block.getVerifiedTransactions());
+        }
+
+        /**
+         * @param nonce A nonce whose hash meets the target.
+         * @return The mined block.
+         */
+        public Block toBlock(long nonce) {
+            String hash = Crypto.hex(Crypto.sha256(prefix, nonce));
+            Block block = new Block(hash, previousHash, timeStamp, target, nonce, new ArrayList<>(transactions));
+            block.setVerifiedTransactions(verifiedTransactions); // The template processed them, so the ledger does not verify them again.
+            return block;
+        }
+    }
+
+    private final Ledger ledger;
+    private final String previousHash;
+    private final long previousTimeStamp;
+    private final BigInteger target;
+    // Collects the transactions, checking them against the ledger and each other like any block being built.
+    private final Block block;
+    private volatile Header header;
+
+    /**
+     * Use {@link Ledger#createTemplate()}, which reads the tip and its next target together.
+     * @param ledger The ledger the block will be applied to.
+     * @param previousHash The hash of the tip the block builds on.
+     * @param previousTimeStamp The tip's timestamp; the block's timestamp is never earlier.
+     * @param target The target the ledger expects for the block.
+     */
+    BlockTemplate(Ledger ledger, String previousHash, long previousTimeStamp, BigInteger target) {
+        this.ledger = ledger;
+        this.previousHash = previousHash;
+        this.previousTimeStamp = previousTimeStamp;
+        this.target = target;
+        this.block = new Block(previousHash);
+        publish();
+    }
+
+    /**
+     * Processes a transaction and adds it to the block being mined.
+     * @param transaction The transaction.
+     * @return true if it was added, false if it failed to process.
+     */
+    public synchronized boolean addTransaction(Transaction transaction) {
+        if (!block.addTransaction(transaction, ledger)) return false;
+        publish();
+        return true;
+    }
+
+    /**
+     * Publishes a new header with the current time as its timestamp.
+     */
+    public synchronized void refresh() {
+        publish();
+    }
+
+    /**
+     * @return The header miners should hash now.
+     */
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * @return The number of transactions in the block so far.
+     */
+    public synchronized int size() {
+        return block.transactions.size();
+    }
+
+    /**
+     * @return true if the ledger's tip is no longer the block this template builds on.
+     */
+    public boolean isStale() {
+        Block tip = ledger.getLastBlock();
+        String tipHash = (tip == null) ? "0" : tip.hash;
+        return !tipHash.equals(previousHash);
+    }
+
+    private void publish() {
+        long timeStamp = Math.max(new Date().getTime(), previousTimeStamp);
+        List<Transaction> transactions = Collections.unmodifiableList(new ArrayList<>(block.transactions));
+        header = new Header(previousHash, timeStamp, target, transactions, block.getMerkleRoot(), block.getVerifiedTransactions());
+    }
+}
@@ -0,0 +1,146 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Every known block, linked to its parent, so competing branches can be kept side by side.
+ * Each node knows the total proof of work of the branch that ends in it; the branch with the
+ * most work is the best chain. The tree is not thread-safe; the {@link Ledger} guards it.
+ */
+public class BlockTree {
+
+    /**
+     * A block in the tree.
+     */
+    public static class Node {
+        public final String hash;
+        public final Block block; // null if only the header is known (restored from a snapshot)
+        public final Node parent; // null for the genesis block
+        public final int height; // Distance from the genesis block
+        public final long timeStamp; // The block's timestamp, needed for retargeting
+        public final BigInteger target; // The block's proof-of-work target
+        public final BigInteger chainWork; // Work of this block and all its ancestors
+        private boolean invalid; // Set when the block's header (or an ancestor's) broke the rules
+
+        private Node(String hash, Block block, Node parent, long timeStamp, BigInteger target) {
+            this.hash = hash;
+            this.block = block;
+            this.parent = parent;
+            this.height = (parent == null) ? 0 : parent.height + 1;
+            this.timeStamp = timeStamp;
+            this.target = target;
+            BigInteger work = Difficulty.work(target);
+            this.chainWork = (parent == null) ? work : parent.chainWork.add(work);
+            this.invalid = parent != null && parent.invalid;
+        }
+
+        public boolean isInvalid() {
+            return invalid;
+        }
+    }
+
+    private final HashMap<String, Node> nodes = new HashMap<>();
+    // Nodes without children: the ends of all branches.
+    private final HashSet<Node> tips = new HashSet<>();
+    private Node genesis;
+
+    /**
+     * Adds a block. The first block added becomes the genesis block; every later block
+     * must have a parent that is already in the tree. The work the block adds follows from its target.
+     * @param block The block.
+     * @return The new node, or null if the block is already known or its parent is not.
+     */
+    public Node add(Block block) {
+        return add(block.hash, block.previousHash, block, block.getTimeStamp(), block.getTarget());
+    }
+
+    /**
+     * Adds a block of which only the header is known. See {@link #add(Block)}.
+     */
+    public Node add(BinaryCodec.BlockHeader header) {
+        return add(header.hash, header.previousHash, null, header.timeStamp, header.target);
+    }
+
+    private Node add(String hash, String previousHash, Block block, long timeStamp, BigInteger target) {
+        if (nodes.containsKey(hash)) return null;
+        Node parent = null;
+        if (genesis != null) {
+            parent = nodes.get(previousHash);
+            if (parent == null) return null;
+        }
+        Node node = new Node(hash, block, parent, timeStamp, target);
+        if (parent == null) genesis = node;
+        nodes.put(hash, node);
+        tips.remove(parent);
+        tips.add(node);
+        return node;
+    }
+
+    /**
+     * @param hash A block hash.
+     * @return The node of that block, or null if it is not in the tree.
+     */
+    public Node get(String hash) {
+        return nodes.get(hash);
+    }
+
+    /**
+     * Marks a block whose header broke the rules. Blocks built on it later are marked too.
+     * @param node The block's node.
+     */
+    public void markInvalid(Node node) {
+        node.invalid = true;
+    }
+
+    /**
+     * Forgets a block, and every block built on it, as if it had never been added. Used for a block
+     * whose transactions failed: its hash does not commit to them unambiguously (see
+     * {@link Block#hasDuplicateTransactions()}), so the same hash may still arrive with a valid body.
+     * @param node The block's node.
+     */
+    public void remove(Node node) {
+        nodes.values().removeIf(other -> isDescendant(other, node));
+        tips.removeIf(tip -> isDescendant(tip, node));
+        if (node == genesis) {
+            genesis = null;
+        } else if (nodes.values().stream().noneMatch(other -> other.parent == node.parent)) {
+            tips.add(node.parent);
+        }
+    }
+
+    /**
+     * @return true if 'node' is 'ancestor' or is built on it.
+     */
+    private static boolean isDescendant(Node node, Node ancestor) {
+        while (node != null && node.height > ancestor.height) node = node.parent;
+        return node == ancestor;
+    }
+
+    /**
+     * @return The valid tip with the most work, or null if the tree is empty.
+     */
+    public Node getBestTip() {
+        Node best = null;
+        for (Node tip : tips) {
+            if (tip.invalid) continue;
+            if (best == null || tip.chainWork.compareTo(best.chainWork) > 0) best = tip;
+        }
+        return best;
+    }
+
+    /**
+     * @return The ends of all branches, including invalid ones.
+     */
+    public List<Node> getTips() {
+        return new ArrayList<>(tips);
+    }
+
+    /**
+     * @return The number of blocks in the tree.
+     */
+    public int size() {
+        return nodes.size();
+    }
+}
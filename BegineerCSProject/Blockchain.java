@@ -1,147 +1,314 @@
-import java.security.Security;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Scanner;
-
-public class Blockchain {
-
-    public static ArrayList<Block> blockchain = new ArrayList<>();
-    public static HashMap<String, TransactionOutput> UTXOs = new HashMap<>();
-
-    public static int difficulty = 3; // Difficulty for mining (number of leading zeros)
-    public static double minimumTransaction = 0.1;
-    public static Wallet walletA;
-    public static Wallet walletB;
-    public static Transaction genesisTransaction;
-
-    public static void main(String[] args) {
-    // Add BouncyCastle as a Security Provider
-    Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
-
-    // --- Initial Blockchain Setup ---
-    ArrayList<Wallet> wallets = new ArrayList<>();
-    walletA = new Wallet();
-    walletB = new Wallet();
-    wallets.add(walletA);
-    wallets.add(walletB);
-    Wallet coinbase = new Wallet();
-
-    // Create genesis transaction, which sends 100 coins to walletA
-    genesisTransaction = new Transaction(coinbase.publicKey, walletA.publicKey, 100f, null);
-    genesisTransaction.generateSignature(coinbase.privateKey);
-    genesisTransaction.transactionId = "0";
-    genesisTransaction.outputs.add(new TransactionOutput(genesisTransaction.recipient, genesisTransaction.value, genesisTransaction.transactionId));
-    UTXOs.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0));
-
-    System.out.println("Creating and Mining Genesis block... ");
-    Block genesis = new Block("0");
-    genesis.addTransaction(genesisTransaction);
-    addBlock(genesis);
-
-    // --- Interactive Loop ---
-    Scanner scanner = new Scanner(System.in);
-    while (true) {
-        System.out.println("\n=================================");
-        System.out.println("Choose an action:");
-        System.out.println("1. Send Funds");
-        System.out.println("2. Check Wallet Balance");
-        System.out.println("3. Check Blockchain Validity");
-        System.out.println("4. Exit");
-        System.out.print("Enter your choice: ");
-
-        String choice = scanner.nextLine();
-        Block lastBlock = blockchain.get(blockchain.size() - 1);
-
-        switch (choice) {
-            case "1":
-                try {
-                    System.out.print("Enter sender wallet number (0 for A, 1 for B, etc.): ");
-                    int senderIndex = Integer.parseInt(scanner.nextLine());
-                    System.out.print("Enter recipient wallet number: ");
-                    int recipientIndex = Integer.parseInt(scanner.nextLine());
-                    System.out.print("Enter amount to send: ");
-                    float amount = Float.parseFloat(scanner.nextLine());
-
-                    if (senderIndex >= wallets.size() || recipientIndex >= wallets.size()) {
-                        System.out.println("Invalid wallet number.");
-                        continue;
-                    }
-
-                    Wallet sender = wallets.get(senderIndex);
-                    Wallet recipient = wallets.get(recipientIndex);
-                    
-                    Block newBlock = new Block(lastBlock.hash);
-                    System.out.println("\nAttempting to send " + amount + " from Wallet " + senderIndex + " to Wallet " + recipientIndex + "...");
-                    newBlock.addTransaction(sender.sendFunds(recipient.publicKey, amount));
-                    addBlock(newBlock);
-
-                } catch (NumberFormatException e) {
-                    System.out.println("Invalid input. Please enter numbers only.");
-                }
-                break;
-
-            case "2":
-                try {
-                    System.out.print("Enter wallet number to check balance (0 for A, 1 for B, etc.): ");
-                    int walletIndex = Integer.parseInt(scanner.nextLine());
-                     if (walletIndex >= wallets.size()) {
-                        System.out.println("Invalid wallet number.");
-                        continue;
-                    }
-                    System.out.println("Wallet " + walletIndex + " balance is: " + wallets.get(walletIndex).getBalance());
-                } catch (NumberFormatException e) {
-                     System.out.println("Invalid input. Please enter a number.");
-                }
-                break;
-
-            case "3":
-                isChainValid();
-                break;
-
-            case "4":
-                System.out.println("Exiting...");
-                scanner.close();
-                System.exit(0);
-                break;
-
-            default:
-                System.out.println("Invalid choice. Please try again.");
-        }
-    }
-}
-        public static void addBlock(Block newBlock) {
-        newBlock.mineBlock(difficulty);
-        blockchain.add(newBlock);
-        }
-        public static Boolean isChainValid() {
-        Block currentBlock;
-        Block previousBlock;
-        String hashTarget = new String(new char[difficulty]).replace('\0', '0');
-
-        // Loop through the blockchain to check hashes:
-        for (int i = 1; i < blockchain.size(); i++) {
-            currentBlock = blockchain.get(i);
-            previousBlock = blockchain.get(i - 1);
-
-            // Compare the registered hash and the calculated hash:
-            if (!currentBlock.hash.equals(currentBlock.calculateHash())) {
-                System.out.println("Current Hashes not equal");
-                return false;
-            }
-
-            // Compare the previous hash and the registered previous hash:
-            if (!previousBlock.hash.equals(currentBlock.previousHash)) {
-                System.out.println("Previous Hashes not equal");
-                return false;
-            }
-        
-            // Check if the hash is solved (has the required number of zeros)
-            if(!currentBlock.hash.substring(0, difficulty).equals(hashTarget)) {
-                System.out.println("This block hasn't been mined");
-                return false;
-            }
-        }
-        System.out.println("Blockchain is valid");
-        return true;
-    }
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Scanner;
+
+public class Blockchain {
+
+    public static Metrics metrics = new Metrics(); // Counters and latency histograms, updated on the hot paths
+    public static MetricsServer metricsServer; // Serves the metrics on http://127.0.0.1:9400/metrics (null = not serving)
+    public static RpcServer rpcServer; // Lets local clients submit transactions and read the ledger on http://127.0.0.1:9401 (null = not serving)
+    public static long minimumTransaction = Amount.COIN / 10; // 0.1 coins, in base units
+    public static Difficulty difficulty = new Difficulty(3, 20, 10_000); // Proof-of-work rules: at least 3 leading zeros, retargeted every 20 blocks towards 10 s per block
+    public static Ledger ledger = new Ledger(minimumTransaction, difficulty); // The chain and UTXO state used by main()
+    public static BlockStore store; // Where mined blocks are kept on disk (null = memory only)
+    public static AddressIndex addressIndex; // Finds the transactions of an address or output without reading every block (null = not indexed)
+    public static SnapshotScheduler snapshots; // Writes UTXO snapshots next to the store, so a restart replays only the newest blocks
+
+    public static Miner miner = new Miner(); // Parallel proof-of-work engine shared by all blocks
+    public static SignatureVerifier signatureVerifier = new SignatureVerifier(); // Checks many signatures at once
+    public static ChainValidator validator = new ChainValidator(); // Remembers how far the chain has been validated
+    public static Mempool mempool = new Mempool(100_000, ledger); // Submitted transactions waiting for a block
+    public static BlockAssembler assembler = new BlockAssembler(ledger, mempool, 1000, 2000); // Mines the mempool in the background
+    public static Wallet walletA;
+    public static Wallet walletB;
+    public static Transaction genesisTransaction;
+
+    public static void main(String[] args) {
+    // Add BouncyCastle as a Security Provider
+    Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+
+    // --- Initial Blockchain Setup ---
+    Path dataDirectory = Paths.get("ledger-data");
+    ArrayList<Wallet> wallets = new ArrayList<>();
+    try {
+        store = new BlockStore(dataDirectory);
+        walletA = Wallet.loadOrCreate(dataDirectory.resolve("walletA.key"));
+        walletB = Wallet.loadOrCreate(dataDirectory.resolve("walletB.key"));
+    } catch (IOException e) {
+        throw new RuntimeException(e);
+    }
+    wallets.add(walletA);
+    wallets.add(walletB);
+
+    if (store.size() > 0) {
+        // The chain is already on disk: read it back instead of mining a new genesis block.
+        Log.info("Loading " + store.size() + " blocks from " + dataDirectory + "... ");
+        UTXOSnapshot snapshot = null;
+        try {
+            snapshot = UTXOSnapshot.read(dataDirectory.resolve("utxo-snapshot.dat"));
+        } catch (IOException e) {
+            Log.warn("Ignoring the UTXO snapshot: " + e.getMessage());
+        }
+        loadChain(snapshot);
+    } else {
+        Wallet coinbase = new Wallet();
+
+        // Create genesis transaction, which sends 100 coins to walletA
+        genesisTransaction = new Transaction(coinbase.publicKey, walletA.publicKey, Amount.ofCoins(100), null);
+        genesisTransaction.generateSignature(coinbase.privateKey);
+        genesisTransaction.transactionId = "0";
+        genesisTransaction.outputs.add(new TransactionOutput(genesisTransaction.recipient, genesisTransaction.value, genesisTransaction.transactionId));
+
+        Log.info("Creating and Mining Genesis block... ");
+        Block genesis = new Block("0");
+        genesis.addTransaction(genesisTransaction);
+        addBlock(genesis);
+    }
+
+    try {
+        long start = System.nanoTime();
+        addressIndex = new AddressIndex(dataDirectory.resolve("address-index.dat"));
+        ledger.setAddressIndex(addressIndex);
+        Log.info("Address index: " + addressIndex.getKeyCount() + " addresses and outputs, ready in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    } catch (IOException e) {
+        Log.warn("Transaction history is not indexed: " + e.getMessage());
+    }
+
+    // While nobody is sending, merge wallets' many small UTXOs into a few larger ones.
+    for (Wallet wallet : wallets) wallet.consolidationThreshold = 20;
+    assembler.setStore(store);
+    assembler.setIdleTask(() -> {
+        for (Wallet wallet : wallets) {
+            Transaction consolidation = wallet.consolidate();
+            if (consolidation != null) mempool.submit(consolidation);
+        }
+    });
+    assembler.start();
+    snapshots = new SnapshotScheduler(ledger, dataDirectory.resolve("utxo-snapshot.dat"), 100);
+    snapshots.start(60);
+
+    // Values that are only read when the metrics are scraped.
+    metrics.gauge("ledger_height", "Blocks in the chain", ledger::getHeight);
+    metrics.gauge("ledger_utxo_count", "Unspent transaction outputs", ledger::getUTXOCount);
+    metrics.gauge("ledger_difficulty", "Difficulty of the next block relative to the easiest target", () -> difficulty.getDifficulty(ledger.getNextTarget()));
+    metrics.gauge("ledger_mempool_depth", "Transactions waiting in the mempool", mempool::size);
+    metrics.gauge("ledger_miner_hash_rate", "Hashes per second while mining the last block", miner::getHashRate);
+    metrics.counter("ledger_miner_hashes_total", "Hashes computed by the miner", miner::getTotalHashes);
+    metrics.counter("ledger_log_dropped_total", "Log messages dropped because the log queue was full", Log::getDropped);
+    try {
+        metricsServer = new MetricsServer(metrics, 9400);
+        metricsServer.start();
+    } catch (IOException e) {
+        Log.warn("Metrics are not served: " + e.getMessage());
+    }
+    try {
+        rpcServer = new RpcServer(ledger, mempool, 9401);
+        rpcServer.start();
+        for (int i = 0; i < wallets.size(); i++) {
+            Log.info("Wallet " + i + " address: " + Crypto.address(wallets.get(i).publicKey));
+        }
+    } catch (IOException e) {
+        Log.warn("RPC is not served: " + e.getMessage());
+    }
+
+    // --- Interactive Loop ---
+    Scanner scanner = new Scanner(System.in);
+    while (true) {
+        System.out.println("\n=================================");
+        System.out.println("Choose an action:");
+        System.out.println("1. Send Funds");
+        System.out.println("2. Check Wallet Balance");
+        System.out.println("3. Check Blockchain Validity");
+        System.out.println("4. Exit");
+        System.out.print("Enter your choice: ");
+
+        String choice = scanner.nextLine();
+
+        switch (choice) {
+            case "1":
+                try {
+                    System.out.print("Enter sender wallet number (0 for A, 1 for B, etc.): ");
+                    int senderIndex = Integer.parseInt(scanner.nextLine());
+                    System.out.print("Enter recipient wallet number: ");
+                    int recipientIndex = Integer.parseInt(scanner.nextLine());
+                    System.out.print("Enter amount to send: ");
+                    long amount = Amount.parse(scanner.nextLine());
+
+                    if (senderIndex >= wallets.size() || recipientIndex >= wallets.size()) {
+                        System.out.println("Invalid wallet number.");
+                        continue;
+                    }
+
+                    Wallet sender = wallets.get(senderIndex);
+                    Wallet recipient = wallets.get(recipientIndex);
+                    
+                    System.out.println("\nAttempting to send " + Amount.format(amount) + " from Wallet " + senderIndex + " to Wallet " + recipientIndex + "...");
+                    Transaction transaction = sender.sendFunds(recipient.publicKey, amount);
+                    // The transaction waits in the mempool; the assembler mines it in the background.
+                    if (transaction != null && mempool.submit(transaction)) {
+                        System.out.println("Transaction submitted. It will be mined into the next block.");
+                    } else if (transaction != null) {
+                        System.out.println("Transaction rejected by the mempool.");
+                    }
+
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid input. Please enter numbers only.");
+                }
+                break;
+
+            case "2":
+                try {
+                    System.out.print("Enter wallet number to check balance (0 for A, 1 for B, etc.): ");
+                    int walletIndex = Integer.parseInt(scanner.nextLine());
+                     if (walletIndex >= wallets.size()) {
+                        System.out.println("Invalid wallet number.");
+                        continue;
+                    }
+                    System.out.println("Wallet " + walletIndex + " balance is: " + Amount.format(wallets.get(walletIndex).getBalance()));
+                } catch (NumberFormatException e) {
+                     System.out.println("Invalid input. Please enter a number.");
+                }
+                break;
+
+            case "3":
+                System.out.println(validateChain());
+                break;
+
+            case "4":
+                System.out.println("Exiting...");
+                scanner.close();
+                try {
+                    assembler.stop();
+                    snapshots.stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                snapshots.writeNow();
+                if (rpcServer != null) rpcServer.stop();
+                if (metricsServer != null) metricsServer.stop();
+                closeStore();
+                if (addressIndex != null) {
+                    try {
+                        addressIndex.close();
+                    } catch (IOException e) {
+                        Log.error("Could not close the address index: " + e.getMessage());
+                    }
+                }
+                Log.flush();
+                System.exit(0);
+                break;
+
+            default:
+                System.out.println("Invalid choice. Please try again.");
+        }
+    }
+}
+        public static boolean addBlock(Block newBlock) {
+        if (!newBlock.mineBlock(ledger.getNextTarget())) {
+            Log.warn("Mining stopped before the block was found; it is not added.");
+            return false;
+        }
+        return appendBlock(newBlock);
+        }
+
+        /**
+         * Gives a block that has already been mined to the ledger. Blocks the ledger keeps,
+         * on the best chain or on a side branch, are also written to the block store.
+         * @return true if the block is now part of the best chain.
+         */
+        public static boolean appendBlock(Block newBlock) {
+        Ledger.Result result = ledger.acceptBlock(newBlock);
+        boolean kept = result == Ledger.Result.CONNECTED || result == Ledger.Result.REORGANIZED
+                || result == Ledger.Result.SIDE_BRANCH;
+        if (kept && store != null) {
+            try {
+                store.append(newBlock);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return result == Ledger.Result.CONNECTED || result == Ledger.Result.REORGANIZED;
+        }
+
+        /**
+         * Reads every stored block back into memory and replays its transactions
+         * into the UTXO set, so no block has to be mined again. Blocks of side branches
+         * are stored too, so the ledger ends up on the same best chain as before.
+         */
+        public static void loadChain() {
+        loadChain(null);
+        }
+
+        /**
+         * Like {@link #loadChain()}, but the UTXO set is taken from a snapshot and only
+         * the blocks stored after the snapshot's block are replayed.
+         * @param snapshot A snapshot of this chain, or null to replay every block.
+         */
+        public static void loadChain(UTXOSnapshot snapshot) {
+        int first = 0;
+        try {
+            int snapshotPosition = (snapshot == null) ? -1 : store.heightOf(snapshot.blockHash);
+            if (snapshotPosition >= 0) {
+                // Only the headers are read; the blocks themselves are read from the store when needed.
+                ArrayList<BinaryCodec.BlockHeader> headers = new ArrayList<>(snapshotPosition + 1);
+                for (int position = 0; position <= snapshotPosition; position++) {
+                    BinaryCodec.BlockHeader header = store.getHeader(position);
+                    headers.add(header);
+                }
+                ledger.restore(headers, snapshot, hash -> {
+                    try {
+                        return store.get(hash);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                first = snapshotPosition + 1;
+                Log.info("Restored " + snapshot.outputs.size() + " UTXOs at height " + snapshot.height + " from the snapshot");
+            } else if (snapshot != null) {
+                Log.warn("The snapshot's block is not in the store; replaying every block");
+            }
+            for (int position = first; position < store.size(); position++) {
+                Block block = store.get(position);
+                Ledger.Result result = ledger.acceptBlock(block);
+                if (result == Ledger.Result.ORPHAN || result == Ledger.Result.DUPLICATE) {
+                    throw new IllegalStateException("Stored block " + position + " does not fit in the block tree");
+                }
+                if (result == Ledger.Result.INVALID) Log.warn("Stored block " + block.hash + " is invalid");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        }
+
+        /**
+         * Forces any blocks that are still waiting for a batched sync to disk.
+         */
+        public static void closeStore() {
+        if (store == null) return;
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        }
+
+        /**
+         * Checks the chain. Only blocks added since the last check are validated.
+         * @return true if the chain is valid.
+         */
+        public static Boolean isChainValid() {
+        return validateChain().valid;
+        }
+
+        /**
+         * Checks the chain and reports which block failed and why.
+         * @return The result of the validation.
+         */
+        public static ValidationResult validateChain() {
+        return validator.validate(ledger.getBlocks(), difficulty);
+        }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A Bloom filter over keys that are SHA-256 hashes in hex, such as addresses and output ids.
+ * {@link #mightContain} never misses a key that was added, and wrongly reports a key that was not
+ * added with about the probability the filter was sized for.
+ *
+ * The keys are hashes already, so no further hashing is needed: the first 16 hex digits of a key
+ * are h1, the next 16 are h2, and its k bits are (h1 + i * h2) mod m for i = 0 .. k - 1 (unsigned
+ * arithmetic). This is simple enough for a light wallet to reimplement from {@link #toBytes()}.
+ */
+public class BloomFilter {
+
+    private static final double LN2 = Math.log(2);
+    private static final int MAX_HASHES = 32;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedKeys How many keys will be added.
+     * @param falsePositiveRate The wanted probability of {@link #mightContain} returning true for a key that was not added.
+     */
+    public BloomFilter(int expectedKeys, double falsePositiveRate) {
+        int keys = Math.max(1, expectedKeys);
+        long optimal = (long) Math.ceil(-keys * Math.log(falsePositiveRate) / (LN2 * LN2));
+        this.bitCount = Math.max(64, (optimal + 63) / 64 * 64);
+        this.bits = new long[(int) (bitCount / 64)];
+        this.hashCount = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) bitCount / keys * LN2)));
+    }
+
+    private BloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.bitCount = 64L * bits.length;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Adds a key. Keys that are not 64 hex digits are ignored.
+     * @param key A hash in hex.
+     */
+    public void add(String key) {
+        if (key == null || !BinaryCodec.isHashHex(key)) return;
+        long h1 = Long.parseUnsignedLong(key, 0, 16, 16);
+        long h2 = Long.parseUnsignedLong(key, 16, 32, 16);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param key A hash in hex.
+     * @return false if the key was certainly not added; true if it probably was.
+     */
+    public boolean mightContain(String key) {
+        if (key == null || !BinaryCodec.isHashHex(key)) return false;
+        long h1 = Long.parseUnsignedLong(key, 0, 16, 16);
+        long h2 = Long.parseUnsignedLong(key, 16, 32, 16);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of bits in the filter (m), always a multiple of 64.
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * @return The number of bits set per key (k).
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * @return The filter as sent to light wallets: k as one byte, then the bits as big-endian
+     *         longs, bit i being bit (i mod 64) of long i / 64.
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 * bits.length);
+        buffer.put((byte) hashCount);
+        for (long word : bits) buffer.putLong(word);
+        return buffer.array();
+    }
+
+    /**
+     * @param bytes A filter in the form {@link #toBytes()} returns.
+     * @return The filter.
+     * @throws IllegalArgumentException if the bytes are not a filter.
+     */
+    public static BloomFilter fromBytes(byte[] bytes) {
+        if (bytes.length < 9 || (bytes.length - 1) % 8 != 0 || bytes[0] < 1 || bytes[0] > MAX_HASHES) {
+            throw new IllegalArgumentException("Not a Bloom filter");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int hashCount = buffer.get();
+        long[] bits = new long[(bytes.length - 1) / 8];
+        for (int i = 0; i < bits.length; i++) bits[i] = buffer.getLong();
+        return new BloomFilter(bits, hashCount);
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Looks for a set of outputs that adds up to exactly the payment, so no change output
+ * (and no new dust) is created. The search is depth-first over the outputs from largest
+ * to smallest and gives up after a fixed number of steps; then 'fallback' is used.
+ */
+public class BranchAndBoundSelector implements CoinSelector {
+
+    // Only this many of the largest outputs that fit into the payment are searched.
+    private static final int MAX_CANDIDATES = 1000;
+
+    private final int maxTries;
+    private final CoinSelector fallback;
+
+    /**
+     * Creates a selector that tries 100,000 search steps and then spends the largest outputs first.
+     */
+    public BranchAndBoundSelector() {
+        this(100_000, new LargestFirstSelector());
+    }
+
+    /**
+     * @param maxTries How many search steps to try before giving up.
+     * @param fallback The selector used when no exact match is found.
+     */
+    public BranchAndBoundSelector(int maxTries, CoinSelector fallback) {
+        this.maxTries = maxTries;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public List<TransactionOutput> select(UTXOPool pool, long target) {
+        if (pool.total() < target) return null;
+
+        // Candidates are the outputs no larger than the target, largest first.
+        int fitting = pool.countAtMost(target);
+        int count = Math.min(fitting, MAX_CANDIDATES);
+        long[] values = new long[count];
+        long[] remaining = new long[count + 1]; // remaining[i] = sum of values[i..]
+        for (int i = 0; i < count; i++) values[i] = pool.valueAt(fitting - 1 - i);
+        for (int i = count - 1; i >= 0; i--) remaining[i] = remaining[i + 1] + values[i];
+
+        boolean[] chosen = new boolean[count];
+        int[] tries = new int[1];
+        if (search(values, remaining, chosen, 0, 0, target, tries)) {
+            List<TransactionOutput> selected = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                if (chosen[i]) selected.add(pool.get(fitting - 1 - i));
+            }
+            return selected;
+        }
+        return fallback.select(pool, target);
+    }
+
+    private boolean search(long[] values, long[] remaining, boolean[] chosen,
+                           int index, long sum, long target, int[] tries) {
+        if (sum == target) return true;
+        if (++tries[0] > maxTries) return false;
+        // Bound: overshooting, or not enough left to ever reach the target.
+        if (index == values.length || sum > target || sum + remaining[index] < target) return false;
+
+        chosen[index] = true;
+        if (search(values, remaining, chosen, index + 1, sum + values[index], target, tries)) return true;
+        chosen[index] = false;
+
+        // Leaving this value out: skip equal values too, they would only repeat the same search.
+        int next = index + 1;
+        while (next < values.length && values[next] == values[index]) next++;
+        return search(values, remaining, chosen, next, sum, target, tries);
+    }
+}
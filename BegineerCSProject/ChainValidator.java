@@ -0,0 +1,168 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.stream.IntStream;
+
+public class ChainValidator {
+
+    // Height of the last block that was fully validated (-1 = nothing validated yet).
+    private int checkpointHeight = -1;
+    // Hash of that block, used to notice when the chain below the checkpoint was replaced.
+    private String checkpointHash;
+    // The UTXO set as it was after the checkpoint block, rebuilt only by the validator.
+    // Only values are needed to check spends, so it is kept off-heap in compact records.
+    private CompactUTXOTable checkpointUTXOs = new CompactUTXOTable();
+
+    /**
+     * Validates only the blocks added since the last successful call.
+     * Falls back to a full validation if the checkpoint block is no longer part of the chain.
+     * @param chain The blocks, in height order.
+     * @param difficulty The proof-of-work rules the chain must follow.
+     * @return The first problem found, or ok().
+     */
+    public synchronized ValidationResult validate(List<Block> chain, Difficulty difficulty) {
+        if (checkpointHeight >= chain.size()
+                || (checkpointHeight >= 0 && !chain.get(checkpointHeight).hash.equals(checkpointHash))) {
+            return validateAll(chain, difficulty);
+        }
+        return check(chain, difficulty, checkpointHeight + 1);
+    }
+
+    /**
+     * Forgets the checkpoint and validates every block again.
+     * @param chain The blocks, in height order.
+     * @param difficulty The proof-of-work rules the chain must follow.
+     * @return The first problem found, or ok().
+     */
+    public synchronized ValidationResult validateAll(List<Block> chain, Difficulty difficulty) {
+        checkpointHeight = -1;
+        checkpointHash = null;
+        checkpointUTXOs = new CompactUTXOTable();
+        return check(chain, difficulty, 0);
+    }
+
+    /**
+     * @return The height of the last validated block, or -1.
+     */
+    public synchronized int getCheckpointHeight() {
+        return checkpointHeight;
+    }
+
+    private ValidationResult check(List<Block> chain, Difficulty difficulty, int from) {
+        // 1. Hash and proof of work. Every block can be checked on its own, so this runs on
+        //    the work-stealing common pool. The genesis block is not mined against its target.
+        int firstMined = Math.max(from, 1);
+        OptionalInt badHash = IntStream.range(firstMined, chain.size()).parallel()
+                .filter(i -> !chain.get(i).hash.equals(chain.get(i).calculateHash()))
+                .min();
+        OptionalInt unmined = IntStream.range(firstMined, chain.size()).parallel()
+                .filter(i -> !Difficulty.meetsTarget(chain.get(i).hash, chain.get(i).getTarget()))
+                .min();
+
+        // 2. Sequential pass: links, targets, timestamps, transactions and UTXO consistency, in height order.
+        for (int i = from; i < chain.size(); i++) {
+            Block currentBlock = chain.get(i);
+            if (badHash.isPresent() && badHash.getAsInt() == i) {
+                return ValidationResult.failure(i, "stored hash does not match the calculated hash");
+            }
+            if (unmined.isPresent() && unmined.getAsInt() == i) {
+                return ValidationResult.failure(i, "block hash does not meet its target");
+            }
+            if (i > 0 && !chain.get(i - 1).hash.equals(currentBlock.previousHash)) {
+                return ValidationResult.failure(i, "previous hash does not match block " + (i - 1));
+            }
+            if (!currentBlock.getTarget().equals(expectedTarget(chain, i, difficulty))) {
+                return ValidationResult.failure(i, "target does not follow the retargeting rules");
+            }
+            if (i > 0 && currentBlock.getTimeStamp() < chain.get(i - 1).getTimeStamp()) {
+                return ValidationResult.failure(i, "timestamp is earlier than block " + (i - 1));
+            }
+            String problem = (i == 0) ? null : checkTransactions(currentBlock);
+            if (problem != null) return ValidationResult.failure(i, problem);
+
+            for (Transaction transaction : currentBlock.transactions) {
+                checkpointUTXOs.apply(transaction);
+            }
+            checkpointHeight = i;
+            checkpointHash = currentBlock.hash;
+        }
+        return ValidationResult.ok();
+    }
+
+    /**
+     * @return The target the block at 'height' must have, given the blocks before it.
+     */
+    private static BigInteger expectedTarget(List<Block> chain, int height, Difficulty difficulty) {
+        if (height == 0) return difficulty.limit;
+        Block parent = chain.get(height - 1);
+        if (!difficulty.isRetargetHeight(height)) return parent.getTarget();
+        Block first = chain.get(height - difficulty.retargetInterval);
+        return difficulty.retarget(parent.getTarget(), first.getTimeStamp(), parent.getTimeStamp());
+    }
+
+    /**
+     * Checks the signatures of a block in one batch, then checks that every input spends
+     * an output that exists (before the block, or earlier in the block), belongs to the
+     * transaction's sender and is not spent twice,
+     * and that every transaction creates exactly as many coins as it spends.
+     * @return A description of the first problem, or null if the transactions are valid.
+     */
+    private String checkTransactions(Block block) {
+        boolean[] signatures = block.verifySignatures();
+        HashSet<String> spentInBlock = new HashSet<>();
+        HashMap<String, TransactionOutput> createdInBlock = new HashMap<>();
+        for (int t = 0; t < block.transactions.size(); t++) {
+            Transaction transaction = block.transactions.get(t);
+            if (!signatures[t]) return "transaction " + t + " has an invalid signature";
+            if (transaction.inputs == null) return "transaction " + t + " has no inputs";
+            byte[] senderHash = CompactUTXOTable.ownerHash(transaction.sender);
+            long inputsValue = 0;
+            long outputsValue = 0;
+            try {
+                for (TransactionInput input : transaction.inputs) {
+                    // Output ids are compared as text below, so only their canonical spelling is accepted.
+                    if (input.transactionOutputId == null || !BinaryCodec.isHashHex(input.transactionOutputId)) {
+                        return "transaction " + t + " spends an output whose id is not a lowercase hash";
+                    }
+                    long spentValue = checkpointUTXOs.getValue(input.transactionOutputId);
+                    boolean owned;
+                    if (spentValue < 0) {
+                        TransactionOutput created = createdInBlock.get(input.transactionOutputId);
+                        if (created == null) {
+                            return "transaction " + t + " spends missing output " + input.transactionOutputId;
+                        }
+                        spentValue = created.value;
+                        owned = Crypto.sameKey(created.recipient, transaction.sender);
+                    } else {
+                        owned = Arrays.equals(checkpointUTXOs.getOwner(input.transactionOutputId), senderHash);
+                    }
+                    if (!owned) {
+                        return "transaction " + t + " spends output " + input.transactionOutputId + " that its sender does not own";
+                    }
+                    if (!spentInBlock.add(input.transactionOutputId)) {
+                        return "transaction " + t + " spends output " + input.transactionOutputId + " twice";
+                    }
+                    inputsValue = Math.addExact(inputsValue, spentValue);
+                }
+                for (TransactionOutput output : transaction.outputs) {
+                    if (!output.parentTransactionId.equals(transaction.transactionId)) {
+                        return "transaction " + t + " has an output that belongs to another transaction";
+                    }
+                    if (output.value <= 0) return "transaction " + t + " has an output that is not positive";
+                    if (output.id == null || !BinaryCodec.isHashHex(output.id)) return "transaction " + t + " has an output whose id is not a hash";
+                    outputsValue = Math.addExact(outputsValue, output.value);
+                    createdInBlock.put(output.id, output);
+                }
+            } catch (ArithmeticException e) {
+                return "transaction " + t + " overflows";
+            }
+            if (inputsValue != outputsValue) {
+                return "transaction " + t + " spends " + Amount.format(inputsValue) + " but creates " + Amount.format(outputsValue);
+            }
+        }
+        return null;
+    }
+}
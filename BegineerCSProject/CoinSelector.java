@@ -0,0 +1,14 @@
+import java.util.List;
+
+/**
+ * Chooses which of a wallet's outputs to spend for a payment.
+ */
+public interface CoinSelector {
+
+    /**
+     * @param pool The wallet's spendable outputs, sorted by value.
+     * @param target The amount to pay, in base units.
+     * @return The outputs to spend (their sum is at least 'target'), or null if the pool cannot pay it.
+     */
+    List<TransactionOutput> select(UTXOPool pool, long target);
+}
@@ -0,0 +1,304 @@
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A UTXO set that keeps only what is needed to check spends, outside the Java heap.
+ *
+ * Every output is one fixed-size record of {@value #RECORD_SIZE} bytes: the 32-byte raw output id,
+ * the first 20 bytes of the owner's address and the 8-byte value. Records live in an open-addressing
+ * hash table (linear probing, backward-shift deletion, so there are no tombstones) made of direct
+ * ByteBuffers, so the garbage collector never has to trace them: 100 million outputs take about
+ * 7.5 GB of direct memory (see -XX:MaxDirectMemorySize) and no heap at all.
+ *
+ * A slot whose value is 0 is empty, which is why only outputs with a positive value can be stored.
+ * The table is not thread-safe.
+ *
+ * Only the {@link ChainValidator}'s copy of the UTXO set is kept here. The {@link Ledger}'s own
+ * {@link UTXOSet} is still on the heap, because wallets, the RPC server and snapshots need the full
+ * outputs (keys included) and lookups by owner, so a node does not yet scale to 100 million outputs.
+ */
+public class CompactUTXOTable {
+
+    public static final int ID_SIZE = 32;
+    public static final int OWNER_SIZE = 20;
+    public static final int RECORD_SIZE = ID_SIZE + OWNER_SIZE + 8;
+
+    private static final int OWNER_OFFSET = ID_SIZE;
+    private static final int VALUE_OFFSET = ID_SIZE + OWNER_SIZE;
+    // A direct buffer is indexed by int, so large tables are split into segments of this many slots (960 MB).
+    private static final int SLOTS_PER_SEGMENT = 1 << 24;
+    private static final int MIN_CAPACITY = 1024;
+    // The table grows by half once it is this full.
+    private static final double MAX_LOAD = 0.8;
+
+    // Mixed into every hash, so crafted output ids cannot be chosen to collide.
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    private ByteBuffer[] segments;
+    private long capacity;
+    private long size;
+    // The id being looked up, decoded from hex. Reused so lookups do not allocate.
+    private final byte[] key = new byte[ID_SIZE];
+
+    public CompactUTXOTable() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedOutputs How many outputs the table should hold before it has to grow.
+     */
+    public CompactUTXOTable(long expectedOutputs) {
+        allocate(Math.max(MIN_CAPACITY, (long) Math.ceil(expectedOutputs / MAX_LOAD)));
+    }
+
+    /**
+     * @param id The output id (64 lowercase hex digits).
+     * @return true if the output exists and is unspent.
+     */
+    public boolean containsKey(String id) {
+        return decodeId(id) && find(key) >= 0;
+    }
+
+    /**
+     * @param id The output id (64 lowercase hex digits).
+     * @return The output's value in base units, or -1 if it does not exist or has been spent.
+     */
+    public long getValue(String id) {
+        if (!decodeId(id)) return -1;
+        long slot = find(key);
+        return (slot < 0) ? -1 : value(slot);
+    }
+
+    /**
+     * @param id The output id (64 lowercase hex digits).
+     * @return The first {@value #OWNER_SIZE} bytes of the owner's address, or null if the output does not exist.
+     */
+    public byte[] getOwner(String id) {
+        if (!decodeId(id)) return null;
+        long slot = find(key);
+        if (slot < 0) return null;
+        byte[] owner = new byte[OWNER_SIZE];
+        segment(slot).get(offset(slot) + OWNER_OFFSET, owner);
+        return owner;
+    }
+
+    /**
+     * Adds an unspent output, or replaces the output with the same id.
+     * @param id The output id.
+     * @param output The output. Only its owner and value are kept.
+     * @throws IllegalArgumentException if the id is not 64 lowercase hex digits or the value is not positive.
+     */
+    public void put(String id, TransactionOutput output) {
+        if (!decodeId(id)) throw new IllegalArgumentException("Not an output id: " + id);
+        put(key, ownerHash(output), output.value);
+    }
+
+    /**
+     * Adds an unspent output, or replaces the output with the same id.
+     * @param id The raw 32-byte output id.
+     * @param owner The first {@value #OWNER_SIZE} bytes of the owner's address.
+     * @param value The value in base units.
+     * @throws IllegalArgumentException if the value is not positive.
+     */
+    public void put(byte[] id, byte[] owner, long value) {
+        if (value <= 0) throw new IllegalArgumentException("Only positive outputs can be stored: " + value);
+        long slot = find(id);
+        if (slot < 0) {
+            if (size + 1 > capacity * MAX_LOAD) {
+                resize(capacity + capacity / 2);
+                slot = find(id);
+            }
+            slot = -slot - 1;
+            size++;
+        }
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        segment.put(offset, id, 0, ID_SIZE);
+        segment.put(offset + OWNER_OFFSET, owner, 0, OWNER_SIZE);
+        segment.putLong(offset + VALUE_OFFSET, value);
+    }
+
+    /**
+     * Removes an output because it has been spent.
+     * @param id The output id.
+     * @return The removed output's value, or -1 if there was none.
+     */
+    public long remove(String id) {
+        if (!decodeId(id)) return -1;
+        long slot = find(key);
+        if (slot < 0) return -1;
+        long removed = value(slot);
+        delete(slot);
+        size--;
+        return removed;
+    }
+
+    /**
+     * Applies an already processed transaction: its inputs are spent and its outputs are added.
+     * @param transaction The transaction to apply.
+     */
+    public void apply(Transaction transaction) {
+        if (transaction.inputs != null) {
+            for (TransactionInput input : transaction.inputs) {
+                remove(input.transactionOutputId);
+            }
+        }
+        for (TransactionOutput output : transaction.outputs) {
+            put(output.id, output);
+        }
+    }
+
+    /**
+     * @return The number of unspent outputs.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return The direct memory the table occupies, in bytes.
+     */
+    public long getMemoryBytes() {
+        return capacity * RECORD_SIZE;
+    }
+
+    /**
+     * @return The first {@value #OWNER_SIZE} bytes of the address of the output's owner.
+     */
+    static byte[] ownerHash(TransactionOutput output) {
+        return ownerHash(output.recipient);
+    }
+
+    /**
+     * @return The first {@value #OWNER_SIZE} bytes of the key's address, as {@link #getOwner} returns them.
+     */
+    static byte[] ownerHash(PublicKey key) {
+        return Arrays.copyOf(Crypto.hexToBytes(Crypto.address(key)), OWNER_SIZE);
+    }
+
+    // --- Hash table ---
+
+    /**
+     * @return The slot holding 'id' if it is present; otherwise -(the empty slot where it belongs) - 1.
+     */
+    private long find(byte[] id) {
+        long slot = home(id);
+        while (true) {
+            if (value(slot) == 0) return -slot - 1;
+            if (matches(slot, id)) return slot;
+            slot = next(slot);
+        }
+    }
+
+    /**
+     * Empties a slot, then moves later records of the same probe run back so that
+     * every record can still be reached from its home slot without passing an empty slot.
+     */
+    private void delete(long slot) {
+        long hole = slot;
+        long current = next(slot);
+        while (value(current) != 0) {
+            long home = home(current);
+            // Move the record into the hole unless its home lies (cyclically) after the hole.
+            boolean move = (hole <= current) ? (home <= hole || home > current) : (home <= hole && home > current);
+            if (move) {
+                copy(current, hole);
+                hole = current;
+            }
+            current = next(current);
+        }
+        segment(hole).putLong(offset(hole) + VALUE_OFFSET, 0);
+    }
+
+    private void resize(long newCapacity) {
+        ByteBuffer[] oldSegments = segments;
+        long oldCapacity = capacity;
+        allocate(newCapacity);
+        byte[] id = new byte[ID_SIZE];
+        byte[] owner = new byte[OWNER_SIZE];
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            ByteBuffer segment = oldSegments[(int) (slot / SLOTS_PER_SEGMENT)];
+            int offset = (int) (slot % SLOTS_PER_SEGMENT) * RECORD_SIZE;
+            long value = segment.getLong(offset + VALUE_OFFSET);
+            if (value == 0) continue;
+            segment.get(offset, id);
+            segment.get(offset + OWNER_OFFSET, owner);
+            long target = -find(id) - 1;
+            ByteBuffer targetSegment = segment(target);
+            int targetOffset = offset(target);
+            targetSegment.put(targetOffset, id);
+            targetSegment.put(targetOffset + OWNER_OFFSET, owner);
+            targetSegment.putLong(targetOffset + VALUE_OFFSET, value);
+        }
+    }
+
+    private void allocate(long newCapacity) {
+        List<ByteBuffer> allocated = new ArrayList<>();
+        for (long start = 0; start < newCapacity; start += SLOTS_PER_SEGMENT) {
+            int slots = (int) Math.min(SLOTS_PER_SEGMENT, newCapacity - start);
+            allocated.add(ByteBuffer.allocateDirect(slots * RECORD_SIZE)); // Direct buffers start zeroed: every slot empty.
+        }
+        segments = allocated.toArray(new ByteBuffer[0]);
+        capacity = newCapacity;
+    }
+
+    private long home(byte[] id) {
+        return Math.unsignedMultiplyHigh(mix(ByteBuffer.wrap(id).getLong(0)), capacity);
+    }
+
+    private long home(long slot) {
+        return Math.unsignedMultiplyHigh(mix(segment(slot).getLong(offset(slot))), capacity);
+    }
+
+    private long mix(long hash) {
+        // The ids are SHA-256 hashes already; this only spreads the seed through all the bits.
+        hash ^= seed;
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private long next(long slot) {
+        return (slot + 1 == capacity) ? 0 : slot + 1;
+    }
+
+    private boolean matches(long slot, byte[] id) {
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        ByteBuffer wanted = ByteBuffer.wrap(id);
+        for (int i = 0; i < ID_SIZE; i += 8) {
+            if (segment.getLong(offset + i) != wanted.getLong(i)) return false;
+        }
+        return true;
+    }
+
+    private void copy(long from, long to) {
+        ByteBuffer source = segment(from);
+        ByteBuffer target = segment(to);
+        target.put(offset(to), source, offset(from), RECORD_SIZE);
+    }
+
+    private long value(long slot) {
+        return segment(slot).getLong(offset(slot) + VALUE_OFFSET);
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot / SLOTS_PER_SEGMENT)];
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot % SLOTS_PER_SEGMENT) * RECORD_SIZE;
+    }
+
+    /**
+     * Decodes a hex output id into 'key'. Only the canonical spelling (64 lowercase hex digits) is
+     * accepted, so one output cannot be reached under two different ids.
+     * @return false if the id is not 64 lowercase hex digits.
+     */
+    private boolean decodeId(String id) {
+        return id != null && BinaryCodec.isHashHex(id) && Crypto.hexToBytes(id, key);
+    }
+}
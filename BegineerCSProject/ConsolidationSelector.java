@@ -0,0 +1,33 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spends the smallest outputs first, up to a maximum number of inputs.
+ * Every payment then also cleans up some of the wallet's small outputs.
+ * If the smallest outputs cannot pay the target within the limit, 'fallback' is used.
+ */
+public class ConsolidationSelector implements CoinSelector {
+
+    private final int maxInputs;
+    private final CoinSelector fallback;
+
+    /**
+     * @param maxInputs The largest number of inputs a transaction may have.
+     */
+    public ConsolidationSelector(int maxInputs) {
+        this.maxInputs = maxInputs;
+        this.fallback = new LargestFirstSelector();
+    }
+
+    @Override
+    public List<TransactionOutput> select(UTXOPool pool, long target) {
+        if (pool.total() < target) return null;
+        List<TransactionOutput> selected = new ArrayList<>();
+        long total = 0;
+        for (int i = 0; i < pool.size() && i < maxInputs && total < target; i++) {
+            selected.add(pool.get(i));
+            total += pool.valueAt(i);
+        }
+        return (total >= target) ? selected : fallback.select(pool, target);
+    }
+}
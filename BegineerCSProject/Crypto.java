@@ -0,0 +1,325 @@
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hashing, signing and key encoding for the whole ledger.
+ *
+ * MessageDigest, Signature and KeyFactory instances are expensive to look up and not
+ * thread-safe. Every thread keeps its own SHA-256 digest, which is cheap enough to create once
+ * per virtual thread. Signature and KeyFactory instances are borrowed from small pools shared by
+ * all threads instead: the RPC server runs every request on a new virtual thread, which would
+ * otherwise look up a new instance for each one. The encoded form of a public
+ * key, its Base64 text and its address hash are computed once per key object and cached;
+ * decoding the same encoded key twice returns the same PublicKey object, so keys read
+ * from blocks share the cache entries of the wallets that own them.
+ */
+public final class Crypto {
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    });
+    // Enough idle instances for every core to sign or verify at once; more are created when needed
+    // and dropped when the pool is full.
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+    private static final Pool<Signature> ECDSA = new Pool<>(() -> Signature.getInstance("ECDSA", "BC"));
+    private static final Pool<KeyFactory> KEY_FACTORY = new Pool<>(() -> KeyFactory.getInstance("ECDSA", "BC"));
+    private static final ThreadLocal<byte[]> NONCE_BYTES = ThreadLocal.withInitial(() -> new byte[8]);
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Caches are emptied when they grow past this many keys; a ledger normally sees far fewer.
+    private static final int MAX_CACHED_KEYS = 100_000;
+    // Per key object (compared by identity: PublicKey.hashCode is slower than encoding the key).
+    private static final ConcurrentHashMap<KeyIdentity, KeyInfo> keyInfos = new ConcurrentHashMap<>();
+    // Per encoded key, so decoding returns one shared PublicKey object.
+    private static final ConcurrentHashMap<ByteBuffer, PublicKey> decodedKeys = new ConcurrentHashMap<>();
+
+    private Crypto() {
+    }
+
+    // --- Hashing ---
+
+    /**
+     * @return This thread's SHA-256 digest, reset and ready for update() calls.
+     *         It must not be kept or handed to another thread.
+     */
+    public static MessageDigest sha256Digest() {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return digest;
+    }
+
+    public static byte[] sha256(byte[] data) {
+        return sha256Digest().digest(data);
+    }
+
+    /**
+     * Hashes a fixed header followed by a nonce written as 8 big-endian bytes.
+     * This is the same layout the {@link Miner} hashes, so both always agree.
+     */
+    public static byte[] sha256(byte[] header, long nonce) {
+        MessageDigest digest = sha256Digest();
+        digest.update(header);
+        digest.update(Miner.nonceToBytes(nonce, NONCE_BYTES.get()));
+        return digest.digest();
+    }
+
+    public static String sha256Hex(byte[] data) {
+        return hex(sha256(data));
+    }
+
+    /**
+     * @return The bytes as lower-case hexadecimal, two characters per byte.
+     */
+    public static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return The bytes written as hexadecimal in 'hex' (two characters per byte).
+     * @throws IllegalArgumentException if 'hex' is not hexadecimal.
+     */
+    public static byte[] hexToBytes(String hex) {
+        if (hex.length() % 2 != 0) throw new IllegalArgumentException("Odd number of hex digits");
+        byte[] bytes = new byte[hex.length() / 2];
+        if (!hexToBytes(hex, bytes)) throw new IllegalArgumentException("Not a hex string: " + hex);
+        return bytes;
+    }
+
+    /**
+     * Decodes hexadecimal into an existing array, so hot paths do not allocate.
+     * Only the ASCII digits 0-9, a-f and A-F are accepted.
+     * @param hex Exactly two characters per byte of 'bytes'.
+     * @param bytes Receives the decoded bytes.
+     * @return false if 'hex' has the wrong length or is not hexadecimal ('bytes' may then be partly written).
+     */
+    public static boolean hexToBytes(String hex, byte[] bytes) {
+        if (hex.length() != 2 * bytes.length) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            int high = hexDigit(hex.charAt(2 * i));
+            int low = hexDigit(hex.charAt(2 * i + 1));
+            if (high < 0 || low < 0) return false;
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return true;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    // --- Signatures ---
+
+    public static byte[] sign(PrivateKey privateKey, byte[] data) {
+        return sign(privateKey, data, null);
+    }
+
+    /**
+     * Signs with the per-signature random number drawn from 'random', so a seeded generator
+     * gives the same signature every time. null uses the provider's default source.
+     */
+    public static byte[] sign(PrivateKey privateKey, byte[] data, SecureRandom random) {
+        long start = System.nanoTime();
+        Signature signature = ECDSA.take();
+        try {
+            if (random == null) {
+                signature.initSign(privateKey);
+            } else {
+                signature.initSign(privateKey, random);
+            }
+            signature.update(data);
+            return signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            ECDSA.give(signature); // Safe to reuse even after a failure: the next call initializes it again.
+            Blockchain.metrics.signTime.recordSince(start);
+        }
+    }
+
+    /**
+     * @return true if 'signature' is a valid signature of 'data' by 'publicKey'; false otherwise,
+     *         including when the key or signature is malformed.
+     */
+    public static boolean verify(PublicKey publicKey, byte[] data, byte[] signature) {
+        if (publicKey == null || signature == null) return false;
+        long start = System.nanoTime();
+        Signature verifier = ECDSA.take();
+        try {
+            verifier.initVerify(publicKey);
+            verifier.update(data);
+            return verifier.verify(signature);
+        } catch (Exception e) {
+            return false;
+        } finally {
+            ECDSA.give(verifier);
+            Blockchain.metrics.verifyTime.recordSince(start);
+        }
+    }
+
+    // --- Keys ---
+
+    /**
+     * @return The X.509 encoding of the key. The array is shared and must not be changed.
+     */
+    public static byte[] encoded(PublicKey key) {
+        return info(key).encoded;
+    }
+
+    /**
+     * @return The Base64 text of the key's encoding.
+     */
+    public static String keyString(PublicKey key) {
+        return info(key).text;
+    }
+
+    /**
+     * @return The key's address: the hex SHA-256 hash of its encoding. Two copies of
+     *         the same key have the same address.
+     */
+    public static String address(PublicKey key) {
+        return info(key).address;
+    }
+
+    /**
+     * @return true if both keys have the same encoding.
+     */
+    public static boolean sameKey(PublicKey a, PublicKey b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        return Arrays.equals(encoded(a), encoded(b));
+    }
+
+    /**
+     * Turns an X.509 encoding back into a key. Decoding the same bytes again
+     * returns the same object, without running the KeyFactory.
+     * @throws IllegalArgumentException if the bytes are not a valid public key.
+     */
+    public static PublicKey decodeKey(byte[] encoded) {
+        ByteBuffer lookup = ByteBuffer.wrap(encoded);
+        PublicKey key = decodedKeys.get(lookup);
+        if (key != null) return key;
+        KeyFactory keyFactory = KEY_FACTORY.take();
+        try {
+            key = keyFactory.generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid public key", e);
+        } finally {
+            KEY_FACTORY.give(keyFactory);
+        }
+        if (decodedKeys.size() >= MAX_CACHED_KEYS) decodedKeys.clear();
+        byte[] copy = encoded.clone();
+        PublicKey existing = decodedKeys.putIfAbsent(ByteBuffer.wrap(copy), key);
+        if (existing != null) return existing;
+        cache(key, new KeyInfo(copy));
+        return key;
+    }
+
+    private static KeyInfo info(PublicKey key) {
+        KeyInfo info = keyInfos.get(new KeyIdentity(key));
+        if (info == null) info = cache(key, new KeyInfo(key.getEncoded()));
+        return info;
+    }
+
+    private static KeyInfo cache(PublicKey key, KeyInfo info) {
+        if (keyInfos.size() >= MAX_CACHED_KEYS) keyInfos.clear();
+        KeyInfo existing = keyInfos.putIfAbsent(new KeyIdentity(key), info);
+        return (existing != null) ? existing : info;
+    }
+
+    /**
+     * Idle instances of a provider class, shared by all threads. An instance is used by one
+     * thread at a time: it is taken, used and given back.
+     */
+    private static final class Pool<T> {
+        interface Factory<T> {
+            T create() throws GeneralSecurityException;
+        }
+
+        private final ArrayBlockingQueue<T> idle = new ArrayBlockingQueue<>(POOL_SIZE);
+        private final Factory<T> factory;
+
+        Pool(Factory<T> factory) {
+            this.factory = factory;
+        }
+
+        /**
+         * @return An idle instance, or a new one if there is none.
+         */
+        T take() {
+            T instance = idle.poll();
+            if (instance != null) return instance;
+            try {
+                return factory.create();
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Returns an instance taken from this pool; it is dropped if the pool is full.
+         */
+        void give(T instance) {
+            idle.offer(instance);
+        }
+    }
+
+    /**
+     * Everything derived from a key's encoding.
+     */
+    private static final class KeyInfo {
+        final byte[] encoded;
+        final String text;
+        final String address;
+
+        KeyInfo(byte[] encoded) {
+            this.encoded = encoded;
+            this.text = Base64.getEncoder().encodeToString(encoded);
+            this.address = sha256Hex(encoded);
+        }
+    }
+
+    /**
+     * Compares keys by object identity.
+     */
+    private static final class KeyIdentity {
+        final PublicKey key;
+
+        KeyIdentity(PublicKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof KeyIdentity && ((KeyIdentity) other).key == key;
+        }
+    }
+}
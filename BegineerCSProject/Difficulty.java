@@ -0,0 +1,117 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Proof-of-work rules. A block hash, read as a 256-bit unsigned number, must not be greater than
+ * the block's target, so a lower target means more work. Every {@link #retargetInterval} blocks the
+ * target is scaled by how long the previous blocks actually took compared with
+ * {@link #targetBlockMillis} per block, which keeps blocks coming at about that pace whatever
+ * the total hash rate is.
+ */
+public class Difficulty {
+
+    // One retarget changes the target by at most this factor, so a few odd timestamps cannot swing it far.
+    private static final int MAX_ADJUSTMENT = 4;
+    private static final BigInteger TWO_TO_THE_256 = BigInteger.ONE.shiftLeft(256);
+
+    // The easiest target allowed. The genesis block uses it.
+    public final BigInteger limit;
+    // The target changes at every height that is a multiple of this.
+    public final int retargetInterval;
+    // The time between blocks the target is adjusted towards.
+    public final long targetBlockMillis;
+
+    /**
+     * @param leadingZeros The easiest target, as a number of leading zero hex digits every hash must have.
+     * @param retargetInterval How many blocks share one target (at least 2).
+     * @param targetBlockMillis The desired time between blocks, in milliseconds.
+     */
+    public Difficulty(int leadingZeros, int retargetInterval, long targetBlockMillis) {
+        if (retargetInterval < 2) throw new IllegalArgumentException("The retarget interval must be at least 2 blocks");
+        if (targetBlockMillis < 1) throw new IllegalArgumentException("The target block time must be positive");
+        this.limit = fromLeadingZeros(leadingZeros);
+        this.retargetInterval = retargetInterval;
+        this.targetBlockMillis = targetBlockMillis;
+    }
+
+    /**
+     * @param height A block height.
+     * @return true if a block at that height gets a new target instead of its parent's.
+     */
+    public boolean isRetargetHeight(int height) {
+        return height > 0 && height % retargetInterval == 0;
+    }
+
+    /**
+     * Computes the target of a block at a retarget height.
+     * @param previousTarget The parent block's target.
+     * @param firstTimeStamp The timestamp of the block {@link #retargetInterval} blocks before the new one.
+     * @param lastTimeStamp The parent block's timestamp.
+     * @return The new target: the old one scaled by actual / expected time, within the adjustment bounds and the limit.
+     */
+    public BigInteger retarget(BigInteger previousTarget, long firstTimeStamp, long lastTimeStamp) {
+        long expected = (retargetInterval - 1) * targetBlockMillis; // The two timestamps are interval - 1 blocks apart.
+        long actual = Math.max(expected / MAX_ADJUSTMENT, Math.min(expected * MAX_ADJUSTMENT, lastTimeStamp - firstTimeStamp));
+        BigInteger target = previousTarget.multiply(BigInteger.valueOf(actual)).divide(BigInteger.valueOf(expected));
+        if (target.signum() <= 0) return BigInteger.ONE;
+        return target.min(limit);
+    }
+
+    /**
+     * @return How many times harder than the limit 'target' is (1.0 at the limit).
+     */
+    public double getDifficulty(BigInteger target) {
+        return limit.doubleValue() / target.doubleValue();
+    }
+
+    // --- Targets ---
+
+    /**
+     * @param hexZeros A number of leading zero hex digits.
+     * @return The target that every hash with that many leading zeros meets.
+     */
+    public static BigInteger fromLeadingZeros(int hexZeros) {
+        if (hexZeros < 0 || hexZeros > 63) throw new IllegalArgumentException("Invalid number of leading zeros: " + hexZeros);
+        return BigInteger.ONE.shiftLeft(256 - 4 * hexZeros).subtract(BigInteger.ONE);
+    }
+
+    /**
+     * @param target A target.
+     * @return The expected number of hashes needed to find a hash that meets it.
+     */
+    public static BigInteger work(BigInteger target) {
+        return TWO_TO_THE_256.divide(target.add(BigInteger.ONE));
+    }
+
+    /**
+     * @return The target as 32 big-endian bytes, the form it is hashed and stored in.
+     */
+    public static byte[] toBytes(BigInteger target) {
+        byte[] raw = target.toByteArray(); // May have a leading sign byte, or fewer than 32 bytes.
+        byte[] bytes = new byte[32];
+        int length = Math.min(raw.length, 32);
+        System.arraycopy(raw, raw.length - length, bytes, 32 - length, length);
+        return bytes;
+    }
+
+    public static BigInteger fromBytes(byte[] bytes) {
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * Compares a raw digest with a target in the form {@link #toBytes} returns, without allocating.
+     * @return true if the hash is not greater than the target.
+     */
+    public static boolean meetsTarget(byte[] hash, byte[] target) {
+        return Arrays.compareUnsigned(hash, target) <= 0;
+    }
+
+    /**
+     * @param hash A block hash as 64 hex digits.
+     * @return true if the hash is well-formed and not greater than the target.
+     */
+    public static boolean meetsTarget(String hash, BigInteger target) {
+        if (hash == null || !BinaryCodec.isHashHex(hash) || target == null) return false;
+        return new BigInteger(hash, 16).compareTo(target) <= 0;
+    }
+}
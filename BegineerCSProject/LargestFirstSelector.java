@@ -0,0 +1,20 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spends the largest outputs first. This uses the fewest inputs for a payment.
+ */
+public class LargestFirstSelector implements CoinSelector {
+
+    @Override
+    public List<TransactionOutput> select(UTXOPool pool, long target) {
+        if (pool.total() < target) return null;
+        List<TransactionOutput> selected = new ArrayList<>();
+        long total = 0;
+        for (int i = pool.size() - 1; i >= 0 && total < target; i--) {
+            selected.add(pool.get(i));
+            total += pool.valueAt(i);
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,656 @@
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+public class Ledger {
+
+    // Every known block, including those on side branches.
+    private final BlockTree tree = new BlockTree();
+    // The best chain: the blocks from genesis to the tip with the most work, in height order.
+    private final ArrayList<Block> chain = new ArrayList<>();
+    // How to disconnect each block of the best chain; undoRecords.get(h) belongs to chain.get(h).
+    private final ArrayList<UndoRecord> undoRecords = new ArrayList<>();
+    // The height of every block on the best chain, by block hash.
+    private final HashMap<String, Integer> heights = new HashMap<>();
+    // Blocks below this height were restored from a snapshot and have no undo record,
+    // so the chain cannot be reorganized below it.
+    private int firstUndoHeight = 0;
+    // The hashes of the restored blocks, by height, and how to read them. Restored blocks other
+    // than the snapshot's block are not kept in memory; their entries in 'chain' are null.
+    private String[] restoredHashes;
+    private Function<String, Block> blockLoader;
+    // Unspent outputs of this ledger. Only changed while holding the write lock.
+    private final UTXOSet UTXOs = new UTXOSet();
+    // Writers (block application) take the write lock. Balance and UTXO reads use optimistic reads,
+    // which never block and are retried under the read lock only if a block was applied meanwhile.
+    private final StampedLock lock = new StampedLock();
+    // Kept up to date with the best chain while attached (null = history is found by scanning block filters).
+    private volatile AddressIndex addressIndex;
+
+    // The smallest input total a transaction may spend, in base units.
+    public final long minimumTransaction;
+    // The proof-of-work rules the chain follows.
+    public final Difficulty difficulty;
+    // Blocks stamped further ahead of this node's clock are refused (but may be offered again later).
+    private static final long MAX_FUTURE_MILLIS = 2 * 60 * 60 * 1000;
+
+    /**
+     * Creates an empty ledger.
+     * @param minimumTransaction The smallest input total a transaction may spend, in base units.
+     * @param difficulty The proof-of-work rules the chain follows.
+     */
+    public Ledger(long minimumTransaction, Difficulty difficulty) {
+        this.minimumTransaction = minimumTransaction;
+        this.difficulty = difficulty;
+    }
+
+    /**
+     * What happened to a block given to {@link #acceptBlock(Block)}.
+     */
+    public enum Result {
+        CONNECTED,    // The block extends the best chain and is now its tip.
+        REORGANIZED,  // The block's branch has more work; the best chain switched to it.
+        SIDE_BRANCH,  // The block is kept in the tree, but its branch has less work.
+        DUPLICATE,    // The block is already known.
+        ORPHAN,       // The block's parent is not known; it is not kept.
+        INVALID       // The block spends missing or already spent outputs, repeats a transaction, has the wrong target or timestamp; the best chain is unchanged.
+    }
+
+    /**
+     * Applies a mined block to the best chain.
+     * @param block The block to apply.
+     * @return true if the block is now part of the best chain.
+     */
+    public boolean applyBlock(Block block) {
+        Result result = acceptBlock(block);
+        return result == Result.CONNECTED || result == Result.REORGANIZED;
+    }
+
+    /**
+     * Adds a mined block to the block tree. If it extends the best chain, its transactions are
+     * committed to the UTXO set atomically: all of them, or none. If it completes a branch with
+     * more work than the best chain, the chain is reorganized: blocks are disconnected back to the
+     * fork point with their undo records and the branch is connected, which costs time in
+     * proportion to the depth of the fork, not the length of the chain. If a branch block turns
+     * out to be invalid, the old chain is restored.
+     * The block's target must be the one the retargeting rules give for its parent, and its timestamp
+     * must not be earlier than its parent's. A block is only connected if its signatures are valid and
+     * its transactions spend the outputs of their senders without creating coins. A block that fails
+     * because of its header (target, timestamp, or an invalid ancestor) stays in the tree marked invalid.
+     * One that fails because of its transactions, or repeats a transaction, is not kept at all: a copy
+     * of a block with its last transactions repeated has the same hash (see {@link Block#hasDuplicateTransactions()}),
+     * and must not make the original look known when it arrives. Proof of work is not
+     * checked here; blocks are expected to be mined or checked by a {@link ChainValidator} first.
+     * @param block The block.
+     * @return What happened to the block.
+     */
+    public Result acceptBlock(Block block) {
+        long start = System.nanoTime();
+        Result result = Result.INVALID;
+        long stamp = lock.writeLock();
+        try {
+            if (block.getTimeStamp() > System.currentTimeMillis() + MAX_FUTURE_MILLIS) return result;
+            if (block.hasDuplicateTransactions()) return result;
+            BlockTree.Node node = tree.add(block);
+            if (node == null) {
+                result = (tree.get(block.hash) != null) ? Result.DUPLICATE : Result.ORPHAN;
+            } else if (node.isInvalid()) {
+                result = Result.INVALID;
+            } else if (!node.target.equals(nextTarget(node.parent))
+                    || (node.parent != null && node.timeStamp < node.parent.timeStamp)) {
+                tree.markInvalid(node);
+                result = Result.INVALID;
+            } else if (chain.isEmpty() || node.parent.hash.equals(chain.get(chain.size() - 1).hash)) {
+                if (connect(node)) {
+                    result = Result.CONNECTED;
+                } else {
+                    tree.remove(node);
+                }
+            } else if (node.chainWork.compareTo(tree.get(chain.get(chain.size() - 1).hash).chainWork) > 0) {
+                result = reorganize(node);
+            } else {
+                result = Result.SIDE_BRANCH;
+            }
+            return result;
+        } finally {
+            lock.unlockWrite(stamp);
+            Metrics metrics = Blockchain.metrics;
+            if (result == Result.CONNECTED || result == Result.REORGANIZED) {
+                metrics.applyTime.recordSince(start);
+                metrics.blockTransactions.record(block.transactions.size());
+                metrics.blocksApplied.increment();
+            } else if (result != Result.SIDE_BRANCH) {
+                metrics.blocksRejected.increment();
+            }
+        }
+    }
+
+    /**
+     * Switches the best chain to the branch ending in 'tip'. Called with the write lock held.
+     * @return REORGANIZED if every block of the branch connected; INVALID if one did not (the old chain
+     *         is back in place); SIDE_BRANCH if the fork is older than the snapshot the ledger was restored from.
+     */
+    private Result reorganize(BlockTree.Node tip) {
+        // Walk back from the new tip to the first block that is already on the best chain.
+        ArrayList<BlockTree.Node> branch = new ArrayList<>();
+        BlockTree.Node fork = tip;
+        while (!isOnChain(fork)) {
+            branch.add(fork);
+            fork = fork.parent;
+        }
+        if (fork.height + 1 < firstUndoHeight) {
+            Log.warn("Cannot reorganize below the restored snapshot at height " + (firstUndoHeight - 1) + "; keeping " + tip.hash + " on a side branch");
+            return Result.SIDE_BRANCH;
+        }
+        ArrayList<Block> disconnected = new ArrayList<>();
+        while (chain.size() - 1 > fork.height) {
+            disconnected.add(disconnectTip());
+        }
+        for (int i = branch.size() - 1; i >= 0; i--) {
+            if (!connect(branch.get(i))) {
+                // The failed block's transactions are invalid; forget it and the blocks built on it. Put the old chain back.
+                tree.remove(branch.get(i));
+                while (chain.size() - 1 > fork.height) disconnectTip();
+                for (int j = disconnected.size() - 1; j >= 0; j--) connect(tree.get(disconnected.get(j).hash));
+                return Result.INVALID;
+            }
+        }
+        Blockchain.metrics.reorganizations.increment();
+        Blockchain.metrics.reorganizationDepth.record(disconnected.size());
+        Log.info("Reorganized: " + disconnected.size() + " blocks replaced by " + branch.size()
+                + ", new tip " + tip.hash);
+        return Result.REORGANIZED;
+    }
+
+    /**
+     * @param parent The parent of a new block, or null for a genesis block.
+     * @return The target the new block must have.
+     */
+    private BigInteger nextTarget(BlockTree.Node parent) {
+        Difficulty rules = difficulty;
+        if (parent == null) return rules.limit;
+        if (!rules.isRetargetHeight(parent.height + 1)) return parent.target;
+        BlockTree.Node first = parent;
+        while (first.height > parent.height + 1 - rules.retargetInterval) first = first.parent;
+        return rules.retarget(parent.target, first.timeStamp, parent.timeStamp);
+    }
+
+    /**
+     * @return The target of the next block on the best chain.
+     */
+    public BigInteger getNextTarget() {
+        long stamp = lock.readLock();
+        try {
+            return nextTarget(tipNode());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Starts a block on top of the best chain, for a miner to fill and mine.
+     * @return A template with the current tip and the target it requires.
+     */
+    public BlockTemplate createTemplate() {
+        long stamp = lock.readLock();
+        try {
+            BlockTree.Node tip = tipNode();
+            if (tip == null) return new BlockTemplate(this, "0", 0, nextTarget(null));
+            return new BlockTemplate(this, tip.hash, tip.timeStamp, nextTarget(tip));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return The node of the best chain's tip, or null if the chain is empty. Called with a lock held.
+     */
+    private BlockTree.Node tipNode() {
+        return chain.isEmpty() ? null : tree.get(chain.get(chain.size() - 1).hash);
+    }
+
+    private boolean isOnChain(BlockTree.Node node) {
+        return heights.containsKey(node.hash);
+    }
+
+    /**
+     * Connects a block on top of the best chain, after checking its transactions against the UTXO set
+     * (see {@link #isValidSpend}) and their signatures. Called with the write lock held.
+     * @return true if the block was connected; false if it was left out because it is invalid.
+     */
+    private boolean connect(BlockTree.Node node) {
+        Block block = node.block;
+        // Check everything first, without changing anything...
+        boolean genesis = chain.isEmpty();
+        if (!genesis && !block.hasValidSignatures()) return false;
+        HashSet<String> spent = new HashSet<>();
+        HashMap<String, TransactionOutput> created = new HashMap<>();
+        for (Transaction transaction : block.transactions) {
+            if (!genesis && !isValidSpend(transaction, spent, created)) return false;
+            for (TransactionOutput output : transaction.outputs) {
+                created.put(output.id, output);
+            }
+        }
+        // ...then commit. Nothing below can fail, so the block is applied completely.
+        undoRecords.add(UndoRecord.connect(block, UTXOs));
+        heights.put(block.hash, chain.size());
+        chain.add(block);
+        if (addressIndex != null) addressIndex.connected(block, chain.size() - 1);
+        return true;
+    }
+
+    /**
+     * Checks a transaction of a block being connected: every input spends an output that is unspent
+     * (or was created earlier in the block), belongs to the sender and is not spent twice; the outputs
+     * are positive and add up to exactly the inputs; and the transaction's ID and its outputs' IDs are
+     * the ones their contents give. Called with the write lock held.
+     * @param spent The outputs spent by the block so far; this transaction's inputs are added.
+     * @param created The outputs created by the block so far.
+     * @return true if the transaction is valid.
+     */
+    private boolean isValidSpend(Transaction transaction, HashSet<String> spent, HashMap<String, TransactionOutput> created) {
+        if (transaction.inputs == null || !transaction.hasValidId()) return false;
+        long inputsValue = 0;
+        long outputsValue = 0;
+        try {
+            for (TransactionInput input : transaction.inputs) {
+                String id = input.transactionOutputId;
+                TransactionOutput output = UTXOs.get(id);
+                if (output == null) output = created.get(id);
+                if (output == null || !spent.add(id) || !Crypto.sameKey(output.recipient, transaction.sender)) return false;
+                inputsValue = Math.addExact(inputsValue, output.value);
+            }
+            for (TransactionOutput output : transaction.outputs) {
+                if (output.value <= 0 || !transaction.transactionId.equals(output.parentTransactionId) || !output.hasValidId()) return false;
+                outputsValue = Math.addExact(outputsValue, output.value);
+            }
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        return inputsValue == outputsValue;
+    }
+
+    /**
+     * Removes the tip of the best chain and undoes its changes to the UTXO set. Called with the write lock held.
+     * @return The removed block.
+     */
+    private Block disconnectTip() {
+        int height = chain.size() - 1;
+        undoRecords.remove(height).disconnect(UTXOs);
+        Block block = chain.remove(height);
+        heights.remove(block.hash);
+        if (addressIndex != null) addressIndex.disconnected(block, height);
+        return block;
+    }
+
+    /**
+     * Takes a consistent snapshot of the UTXO set at the current tip without stopping block application.
+     * The write lock is only held to start and to stop a journal of changed outputs; the set itself is
+     * copied while new blocks keep being applied, and every output changed meanwhile is then replaced by
+     * its journaled value from the moment the snapshot began.
+     * @return The snapshot, or null if the chain is empty.
+     */
+    public synchronized UTXOSnapshot snapshot() {
+        String hash;
+        int height;
+        long stamp = lock.writeLock();
+        try {
+            if (chain.isEmpty()) return null;
+            height = chain.size() - 1;
+            hash = chain.get(height).hash;
+            UTXOs.startJournal();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        ArrayList<TransactionOutput> live = new ArrayList<>(UTXOs.asMap().values());
+
+        Map<String, TransactionOutput> changed;
+        stamp = lock.writeLock();
+        try {
+            changed = UTXOs.stopJournal();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        ArrayList<TransactionOutput> outputs = new ArrayList<>(live.size());
+        for (TransactionOutput output : live) {
+            if (!changed.containsKey(output.id)) outputs.add(output);
+        }
+        for (TransactionOutput output : changed.values()) {
+            if (output != UTXOSet.ABSENT) outputs.add(output);
+        }
+        return new UTXOSnapshot(hash, height, outputs);
+    }
+
+    /**
+     * Fills an empty ledger from a snapshot, without decoding or replaying the blocks before it.
+     * Only the headers of those blocks go into the block tree; the best chain becomes the path to
+     * the snapshot's block and the UTXO set becomes the snapshot's outputs. Blocks on that path are
+     * read through 'loader' when someone asks for them. Blocks after the snapshot are then given to
+     * {@link #acceptBlock(Block)} as usual.
+     * @param headers The headers of every stored block up to the snapshot's block, parents before children.
+     * @param snapshot The UTXO set after one of those blocks.
+     * @param loader Reads a full block by hash, for example from the {@link BlockStore}.
+     * @throws IllegalArgumentException if the snapshot's block is not among the headers or has another height.
+     */
+    public void restore(List<BinaryCodec.BlockHeader> headers, UTXOSnapshot snapshot, Function<String, Block> loader) {
+        long stamp = lock.writeLock();
+        try {
+            if (tree.size() > 0) throw new IllegalStateException("Only an empty ledger can be restored");
+            for (BinaryCodec.BlockHeader header : headers) {
+                tree.add(header);
+            }
+            BlockTree.Node node = tree.get(snapshot.blockHash);
+            if (node == null || node.height != snapshot.height) {
+                throw new IllegalArgumentException("Snapshot block " + snapshot.blockHash + " is not at height " + snapshot.height);
+            }
+            String[] path = new String[node.height + 1];
+            for (BlockTree.Node n = node; n != null; n = n.parent) path[n.height] = n.hash;
+            for (String hash : path) {
+                heights.put(hash, chain.size());
+                chain.add(null);
+                undoRecords.add(null);
+            }
+            restoredHashes = path;
+            blockLoader = loader;
+            chain.set(node.height, loader.apply(node.hash)); // The tip is always in memory.
+            for (TransactionOutput output : snapshot.outputs) {
+                UTXOs.put(output.id, output);
+            }
+            firstUndoHeight = chain.size();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return The block at a height of the best chain, read through the loader if it was restored
+     *         from a snapshot. Called with a lock held.
+     */
+    private Block blockAt(int height) {
+        Block block = chain.get(height);
+        return (block != null) ? block : blockLoader.apply(restoredHashes[height]);
+    }
+
+    /**
+     * @return The hash of the block at a height of the best chain, without reading a restored block. Called with a lock held.
+     */
+    private String hashAt(int height) {
+        Block block = chain.get(height);
+        return (block != null) ? block.hash : restoredHashes[height];
+    }
+
+    // --- History ---
+
+    /**
+     * Attaches an address index and brings it up to date: blocks it is missing are indexed, and if
+     * it was built for a different chain it is rebuilt. From then on every connected and disconnected
+     * block is applied to it while the write lock is held, so it always matches the best chain.
+     * @param index The index, usually loaded from disk.
+     */
+    public void setAddressIndex(AddressIndex index) throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            int indexed = index.getIndexedHeight();
+            // A block hash commits to all blocks below it, so comparing the top one is enough.
+            if (indexed > chain.size() || (indexed > 0 && !index.getIndexedHash(indexed - 1).equals(hashAt(indexed - 1)))) {
+                Log.warn("The address index does not match the chain; rebuilding it");
+                index.clear();
+                indexed = 0;
+            }
+            for (int height = indexed; height < chain.size(); height++) {
+                index.connected(blockAt(height), height);
+            }
+            addressIndex = index;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Finds the transactions of the best chain that involve an address or output ID (see
+     * {@link Transaction#getInvolvedKeys()}). Uses the address index if one is attached; otherwise
+     * every block is checked against its Bloom filter and only the blocks that match are searched.
+     * @param key An address or output ID.
+     * @return Where the transactions are, oldest first.
+     */
+    public List<TransactionLocation> findTransactions(String key) {
+        AddressIndex index = addressIndex;
+        if (index != null) return index.find(key);
+        List<TransactionLocation> locations = new ArrayList<>();
+        if (key == null) return locations;
+        key = key.toLowerCase();
+        long stamp = lock.readLock();
+        try {
+            for (int height = 0; height < chain.size(); height++) {
+                Block block = blockAt(height);
+                if (!block.getFilter().mightContain(key)) continue;
+                for (int t = 0; t < block.transactions.size(); t++) {
+                    if (block.transactions.get(t).getInvolvedKeys().contains(key)) {
+                        locations.add(new TransactionLocation(height, t));
+                    }
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return locations;
+    }
+
+    /**
+     * @param outputId An output ID.
+     * @return Where the transaction that spent the output is, or null if the output is unspent or
+     *         was never created on the best chain.
+     */
+    public TransactionLocation findSpender(String outputId) {
+        if (outputId == null || getUTXO(outputId) != null) return null;
+        List<TransactionLocation> locations = findTransactions(outputId);
+        long stamp = lock.readLock();
+        try {
+            for (TransactionLocation location : locations) {
+                if (location.height >= chain.size()) continue; // Disconnected meanwhile.
+                Block block = blockAt(location.height);
+                if (location.index >= block.transactions.size()) continue;
+                Transaction transaction = block.transactions.get(location.index);
+                if (transaction.inputs == null) continue;
+                for (TransactionInput input : transaction.inputs) {
+                    if (outputId.equalsIgnoreCase(input.transactionOutputId)) return location;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param owner The owner's public key.
+     * @return The owner's balance in base units, as of the last applied block.
+     */
+    public long getBalance(PublicKey owner) {
+        return getBalance(Crypto.address(owner));
+    }
+
+    /**
+     * @param address The owner's address (see {@link Crypto#address}).
+     * @return The owner's balance in base units, as of the last applied block.
+     */
+    public long getBalance(String address) {
+        long stamp = lock.tryOptimisticRead();
+        long balance = UTXOs.getBalance(address);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                balance = UTXOs.getBalance(address);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return balance;
+    }
+
+    /**
+     * @param id An output ID.
+     * @return The unspent output with that ID, or null if it does not exist or has been spent.
+     */
+    public TransactionOutput getUTXO(String id) {
+        long stamp = lock.tryOptimisticRead();
+        TransactionOutput output = UTXOs.get(id);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                output = UTXOs.get(id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @param owner The owner's public key.
+     * @return A copy of the owner's unspent outputs, all taken from the same block.
+     */
+    public List<TransactionOutput> getUTXOs(PublicKey owner) {
+        return getUTXOs(Crypto.address(owner));
+    }
+
+    /**
+     * @param address The owner's address (see {@link Crypto#address}).
+     * @return A copy of the owner's unspent outputs, all taken from the same block.
+     */
+    public List<TransactionOutput> getUTXOs(String address) {
+        long stamp = lock.tryOptimisticRead();
+        List<TransactionOutput> owned = new ArrayList<>(UTXOs.getOutputs(address));
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                owned = new ArrayList<>(UTXOs.getOutputs(address));
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * @return The number of unspent outputs.
+     */
+    public int getUTXOCount() {
+        return UTXOs.size();
+    }
+
+    /**
+     * @return The number of blocks in the chain.
+     */
+    public int getHeight() {
+        long stamp = lock.readLock();
+        try {
+            return chain.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param height The position of the block in the chain (0 is the genesis block).
+     * @return The block at that height.
+     */
+    public Block getBlock(int height) {
+        long stamp = lock.readLock();
+        try {
+            return blockAt(height);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param hash A block hash.
+     * @return The block with that hash, or null if it is not in the chain.
+     */
+    public Block getBlock(String hash) {
+        long stamp = lock.readLock();
+        try {
+            Integer height = heights.get(hash);
+            return (height == null) ? null : blockAt(height);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param hash A block hash.
+     * @return The height of the block with that hash, or -1 if it is not in the chain.
+     */
+    public int heightOf(String hash) {
+        long stamp = lock.readLock();
+        try {
+            Integer height = heights.get(hash);
+            return (height == null) ? -1 : height;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return The newest block, or null if the chain is empty.
+     */
+    public Block getLastBlock() {
+        long stamp = lock.readLock();
+        try {
+            return chain.isEmpty() ? null : chain.get(chain.size() - 1);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * The tip of the best chain as of one moment.
+     */
+    public static class Tip {
+        public final int height; // -1 if the chain is empty
+        public final String hash; // null if the chain is empty
+
+        Tip(int height, String hash) {
+            this.height = height;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * @return The height and hash of the newest block, read together so they always belong to the same block.
+     */
+    public Tip getTip() {
+        long stamp = lock.readLock();
+        try {
+            if (chain.isEmpty()) return new Tip(-1, null);
+            int height = chain.size() - 1;
+            return new Tip(height, blockAt(height).hash);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return A copy of the chain, in height order.
+     */
+    public List<Block> getBlocks() {
+        long stamp = lock.readLock();
+        try {
+            if (firstUndoHeight == 0) return new ArrayList<>(chain);
+            ArrayList<Block> blocks = new ArrayList<>(chain.size());
+            for (int height = 0; height < chain.size(); height++) blocks.add(blockAt(height));
+            return blocks;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end load test: many wallets send coins to each other through the mempool while the
+ * block assembler mines in the background. Reports submitted and confirmed transactions per second.
+ * The difficulty starts at the easiest target and is retargeted towards the given block time.
+ *   java -cp .:bcprov.jar LoadGenerator [wallets] [seconds] [leading zeros] [block millis]
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws InterruptedException {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        int walletCount = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        int leadingZeros = (args.length > 2) ? Integer.parseInt(args[2]) : 2;
+        long blockMillis = (args.length > 3) ? Long.parseLong(args[3]) : 500;
+        Difficulty difficulty = new Difficulty(leadingZeros, 10, blockMillis);
+        Ledger ledger = new Ledger(Blockchain.minimumTransaction, difficulty);
+        Mempool mempool = new Mempool(100_000, ledger);
+        BlockAssembler assembler = new BlockAssembler(ledger, mempool, 1000, 2000);
+
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Keep per-transaction messages out of the measurement.
+
+        // Genesis block: one output per wallet, so every wallet can start sending right away.
+        List<Wallet> wallets = new ArrayList<>();
+        for (int i = 0; i < walletCount; i++) {
+            Wallet wallet = new Wallet();
+            wallet.ledger = ledger;
+            wallet.mempool = mempool;
+            wallets.add(wallet);
+        }
+        Wallet coinbase = new Wallet();
+        Transaction genesis = new Transaction(coinbase.publicKey, wallets.get(0).publicKey, Amount.ofCoins(1_000_000), null);
+        genesis.generateSignature(coinbase.privateKey);
+        genesis.transactionId = "0";
+        for (Wallet wallet : wallets) {
+            genesis.outputs.add(new TransactionOutput(wallet.publicKey, Amount.ofCoins(1_000_000), "0-" + wallets.indexOf(wallet)));
+        }
+        Block genesisBlock = new Block("0");
+        genesisBlock.addTransaction(genesis, ledger);
+        genesisBlock.mineBlock(ledger.getNextTarget());
+        ledger.acceptBlock(genesisBlock);
+        assembler.start();
+
+        LongAdder submitted = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < walletCount; i++) {
+            Wallet wallet = wallets.get(i);
+            Random random = new Random(i);
+            Thread producer = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    Wallet recipient = wallets.get(random.nextInt(wallets.size()));
+                    Transaction transaction = wallet.sendFunds(recipient.publicKey, Amount.COIN);
+                    if (transaction != null && mempool.submit(transaction)) {
+                        submitted.increment();
+                    } else {
+                        rejected.increment();
+                        try {
+                            Thread.sleep(5); // Every output is pending; wait for the next block.
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, "producer-" + i);
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) producer.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        int height = ledger.getHeight();
+        long confirmed = 0;
+        for (int h = 1; h < height; h++) confirmed += ledger.getBlock(h).transactions.size();
+
+        report.printf("wallets=%d leading zeros=%d block millis=%d seconds=%.1f%n", walletCount, leadingZeros, blockMillis, elapsed);
+        report.printf("submitted: %d (%.1f tx/s), waits for confirmation: %d%n", submitted.sum(), submitted.sum() / elapsed, rejected.sum());
+        report.printf("confirmed: %d in %d blocks (%.1f tx/s)%n", confirmed, height - 1, confirmed / elapsed);
+        long lastInterval = ledger.getBlock(height - 1).getTimeStamp()
+                - ledger.getBlock(Math.max(0, height - 11)).getTimeStamp();
+        report.printf("difficulty: %.1f, last %d blocks took %d ms each%n",
+                difficulty.getDifficulty(ledger.getNextTarget()), Math.min(10, height - 1),
+                lastInterval / Math.max(1, Math.min(10, height - 1)));
+        report.printf("chain: %s%n", new ChainValidator().validate(ledger.getBlocks(), difficulty));
+        System.exit(0);
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Leveled, asynchronous logging. Callers only put the message into a bounded queue;
+ * a background thread writes it to System.out. If the queue is full, the message is
+ * dropped (and counted) instead of making the caller wait for the console.
+ */
+public final class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    // Messages below this level are ignored before they are queued.
+    private static volatile Level level = Level.INFO;
+    // Messages waiting to be written.
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(8192);
+    // Messages lost because the queue was full.
+    private static final LongAdder dropped = new LongAdder();
+    // Held while writing, so flush() and the writer thread do not interleave their output.
+    private static final Object writeLock = new Object();
+
+    static {
+        Thread writer = new Thread(Log::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() {
+    }
+
+    /**
+     * @param newLevel The lowest level that is logged from now on.
+     */
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * Lets hot paths skip building a message that would be ignored.
+     * @param messageLevel A level.
+     * @return true if messages of that level are logged.
+     */
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0;
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    /**
+     * @return How many messages were dropped because the queue was full.
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes every queued message now, on the calling thread. Call before the program exits.
+     */
+    public static void flush() {
+        List<String> batch = new ArrayList<>();
+        synchronized (writeLock) {
+            queue.drainTo(batch);
+            print(batch);
+        }
+    }
+
+    private static void log(Level messageLevel, String message) {
+        if (!isEnabled(messageLevel)) return;
+        String line = (messageLevel == Level.INFO) ? message : messageLevel + " " + message;
+        if (!queue.offer(line)) dropped.increment();
+    }
+
+    private static void write() {
+        List<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                String first = queue.take();
+                synchronized (writeLock) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    print(batch);
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void print(List<String> batch) {
+        if (batch.isEmpty()) return;
+        StringBuilder out = new StringBuilder();
+        for (String line : batch) {
+            out.append(line).append(System.lineSeparator());
+        }
+        System.out.print(out);
+        System.out.flush();
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class Mempool {
+
+    // Transactions waiting to be put into a block, in arrival order.
+    private final LinkedBlockingQueue<Transaction> pending;
+    // Every output ID that a pending transaction wants to spend -> that transaction.
+    private final ConcurrentHashMap<String, Transaction> claimedOutputs = new ConcurrentHashMap<>();
+
+    // The ledger whose outputs the transactions spend.
+    private final Ledger ledger;
+
+    /**
+     * Creates a mempool that holds at most 'capacity' transactions.
+     * @param capacity The maximum number of pending transactions.
+     * @param ledger The ledger whose outputs the transactions spend.
+     */
+    public Mempool(int capacity, Ledger ledger) {
+        pending = new LinkedBlockingQueue<>(capacity);
+        this.ledger = ledger;
+    }
+
+    /**
+     * Admits a transaction. Safe to call from many threads at once.
+     * A transaction is rejected if its signature is invalid, if it has no inputs, if one of its
+     * inputs is an output of the ledger that belongs to someone other than the sender, if another
+     * pending transaction already spends one of its inputs, or if the pool is full.
+     * Inputs the ledger does not know (yet) are left to be checked when the transaction is put into a block.
+     * @param transaction The signed transaction.
+     * @return true if the transaction was admitted.
+     */
+    public boolean submit(Transaction transaction) {
+        if (transaction == null || transaction.inputs == null || transaction.inputs.isEmpty()) return false;
+        if (!transaction.verifySignature()) return false;
+        for (TransactionInput input : transaction.inputs) {
+            TransactionOutput spent = ledger.getUTXO(input.transactionOutputId);
+            if (spent != null && !Crypto.sameKey(spent.recipient, transaction.sender)) return false;
+        }
+
+        // Claim every input. If one is already claimed, undo our claims and reject.
+        List<String> claimed = new ArrayList<>();
+        for (TransactionInput input : transaction.inputs) {
+            Transaction owner = claimedOutputs.putIfAbsent(input.transactionOutputId, transaction);
+            if (owner != null) {
+                release(claimed, transaction);
+                return false;
+            }
+            claimed.add(input.transactionOutputId);
+        }
+        if (!pending.offer(transaction)) {
+            release(claimed, transaction);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes up to 'max' transactions out of the pool. Waits for the first one, then keeps
+     * collecting until 'max' are gathered or 'maxWaitMillis' have passed.
+     * The inputs stay claimed until {@link #release(Transaction)} is called. If the thread is interrupted
+     * after some transactions were taken, they are returned and the interrupt flag is set again.
+     * @param max The largest number of transactions to return.
+     * @param maxWaitMillis How long to wait in total.
+     * @return The transactions taken (possibly empty if nothing arrived in time).
+     */
+    public List<Transaction> drain(int max, long maxWaitMillis) throws InterruptedException {
+        List<Transaction> batch = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        while (batch.size() < max) {
+            pending.drainTo(batch, max - batch.size());
+            if (batch.size() >= max) break;
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+            Transaction next;
+            try {
+                next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) throw e;
+                Thread.currentThread().interrupt(); // The transactions taken so far are returned; the caller sees the interrupt next.
+                break;
+            }
+            if (next == null) break;
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    /**
+     * Frees the inputs of a transaction that has been put into a block (or was dropped).
+     * @param transaction A transaction previously returned by drain().
+     */
+    public void release(Transaction transaction) {
+        if (transaction.inputs == null) return;
+        for (TransactionInput input : transaction.inputs) {
+            claimedOutputs.remove(input.transactionOutputId, transaction);
+        }
+    }
+
+    /**
+     * @param outputId An output ID.
+     * @return true if a pending transaction already spends this output.
+     */
+    public boolean isClaimed(String outputId) {
+        return claimedOutputs.containsKey(outputId);
+    }
+
+    /**
+     * @return The number of transactions waiting for a block.
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    private void release(List<String> outputIds, Transaction transaction) {
+        for (String outputId : outputIds) {
+            claimedOutputs.remove(outputId, transaction);
+        }
+    }
+}
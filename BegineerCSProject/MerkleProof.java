@@ -0,0 +1,57 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+
+public class MerkleProof {
+
+    // The position of the proven transaction within its block.
+    public int index;
+    // The sibling hashes from the leaf level up to just below the root.
+    public ArrayList<byte[]> siblings = new ArrayList<>();
+    // For each sibling: true if it sits on the right of the running hash, false if on the left.
+    public ArrayList<Boolean> siblingOnRight = new ArrayList<>();
+
+    /**
+     * Constructor for the MerkleProof class.
+     * @param index The position of the proven transaction within its block.
+     */
+    public MerkleProof(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Adds one level of the proof.
+     * @param siblingHash The hash that is combined with the running hash at this level.
+     * @param onRight true if the sibling is the right-hand input of the pair.
+     */
+    public void addStep(byte[] siblingHash, boolean onRight) {
+        siblings.add(siblingHash);
+        siblingOnRight.add(onRight);
+    }
+
+    /**
+     * Recomputes the root from the transaction ID and the sibling hashes.
+     * @param transactionId The ID of the transaction that should be in the block.
+     * @param merkleRoot The Merkle root from the block header.
+     * @return true if the transaction is part of the block with that root.
+     */
+    public boolean verify(String transactionId, String merkleRoot) {
+        try {
+            MessageDigest digest = Crypto.sha256Digest();
+            byte[] running = digest.digest(String.valueOf(transactionId).getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < siblings.size(); i++) {
+                if (siblingOnRight.get(i)) {
+                    digest.update(running);
+                    digest.update(siblings.get(i));
+                } else {
+                    digest.update(siblings.get(i));
+                    digest.update(running);
+                }
+                running = digest.digest();
+            }
+            return Transaction.toHex(running).equals(merkleRoot);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
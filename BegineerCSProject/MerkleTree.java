@@ -0,0 +1,90 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+
+public class MerkleTree {
+
+    // levels.get(0) holds the leaf hashes, the last level holds the root.
+    private final ArrayList<ArrayList<byte[]>> levels = new ArrayList<>();
+    /**
+     * Creates an empty Merkle tree.
+     */
+    public MerkleTree() {
+        levels.add(new ArrayList<>());
+    }
+
+    /**
+     * Adds a transaction ID as a new leaf. Only the nodes on the path from the new leaf
+     * to the root are recalculated, so this takes O(log n) hashes.
+     * When a layer has an odd number of nodes, the last node is paired with itself.
+     * @param transactionId The ID of the transaction to add.
+     */
+    public void add(String transactionId) {
+        ArrayList<byte[]> leaves = levels.get(0);
+        leaves.add(hashLeaf(transactionId));
+        int index = leaves.size() - 1;
+        for (int level = 0; levels.get(level).size() > 1; level++) {
+            ArrayList<byte[]> layer = levels.get(level);
+            if (level + 1 == levels.size()) levels.add(new ArrayList<>());
+            ArrayList<byte[]> parents = levels.get(level + 1);
+
+            int parent = index / 2;
+            byte[] left = layer.get(parent * 2);
+            byte[] right = (parent * 2 + 1 < layer.size()) ? layer.get(parent * 2 + 1) : left;
+            byte[] node = hashPair(left, right);
+            if (parent < parents.size()) {
+                parents.set(parent, node);
+            } else {
+                parents.add(node);
+            }
+            index = parent;
+        }
+    }
+
+    /**
+     * @return The number of leaves (transactions) in the tree.
+     */
+    public int size() {
+        return levels.get(0).size();
+    }
+
+    /**
+     * @return The Merkle root as a hex string, or an empty string when the tree has no leaves.
+     */
+    public String getRoot() {
+        if (size() == 0) return "";
+        return Transaction.toHex(levels.get(levels.size() - 1).get(0));
+    }
+
+    /**
+     * Builds an inclusion proof for the leaf at the given position.
+     * A light client can check it against the block's Merkle root with
+     * {@link MerkleProof#verify(String, String)} without seeing the other transactions.
+     * @param index The position of the transaction in the block.
+     * @return The proof, listing each sibling hash from the leaf up to the root.
+     */
+    public MerkleProof getProof(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("No leaf at " + index);
+        MerkleProof proof = new MerkleProof(index);
+        for (int level = 0; level < levels.size() - 1; level++) {
+            ArrayList<byte[]> layer = levels.get(level);
+            boolean isRightChild = (index % 2 == 1);
+            int sibling = isRightChild ? index - 1 : index + 1;
+            byte[] siblingHash = (sibling < layer.size()) ? layer.get(sibling) : layer.get(index);
+            proof.addStep(siblingHash, !isRightChild);
+            index /= 2;
+        }
+        return proof;
+    }
+
+    private byte[] hashLeaf(String transactionId) {
+        return Crypto.sha256(String.valueOf(transactionId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private byte[] hashPair(byte[] left, byte[] right) {
+        MessageDigest digest = Crypto.sha256Digest();
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters, gauges and latency histograms for the ledger's hot paths, exported in the
+ * Prometheus text format. The instruments that the ledger itself updates are fields, so
+ * recording never needs a lookup; gauges read their value only when the metrics are scraped.
+ */
+public class Metrics {
+
+    // Histograms of durations record nanoseconds and are exported in seconds.
+    public static final double NANOS = 1e-9;
+
+    private final List<Metric> metrics = new ArrayList<>();
+
+    // ECDSA signing and verification, one value per signature.
+    public final Histogram signTime = histogram("ledger_signature_sign_seconds", "Time to sign a transaction", NANOS);
+    public final Histogram verifyTime = histogram("ledger_signature_verify_seconds", "Time to verify a transaction signature", NANOS);
+    // Proof of work, one value per mined block.
+    public final Histogram mineTime = histogram("ledger_block_mine_seconds", "Time to find a block's nonce", NANOS);
+    // Block application in the Ledger, one value per applied block.
+    public final Histogram applyTime = histogram("ledger_block_apply_seconds", "Time to check and apply a block to the UTXO set", NANOS);
+    public final Histogram blockTransactions = histogram("ledger_block_transactions", "Transactions per applied block", 1);
+    public final LongAdder blocksApplied = counter("ledger_blocks_applied_total", "Blocks applied to the ledger");
+    public final LongAdder blocksRejected = counter("ledger_blocks_rejected_total", "Blocks that were duplicates, orphans or invalid");
+    // Switches of the best chain to a branch with more work.
+    public final LongAdder reorganizations = counter("ledger_reorganizations_total", "Switches of the best chain to another branch");
+    public final Histogram reorganizationDepth = histogram("ledger_reorganization_depth", "Blocks disconnected per reorganization", 1);
+    public final LongAdder transactionsRejected = counter("ledger_transactions_rejected_total", "Transactions that failed to process");
+
+    /**
+     * Registers a counter.
+     * @param name The Prometheus metric name, ending in "_total".
+     * @param help A one-line description.
+     * @return The counter to increment.
+     */
+    public LongAdder counter(String name, String help) {
+        LongAdder counter = new LongAdder();
+        register(new Metric(name, help, "counter", counter::sum, null, 1));
+        return counter;
+    }
+
+    /**
+     * Registers a counter that is kept elsewhere, for example by the {@link Miner}.
+     * @param name The Prometheus metric name, ending in "_total".
+     * @param help A one-line description.
+     * @param value Supplies the current count. Called from the exporting thread.
+     */
+    public void counter(String name, String help, DoubleSupplier value) {
+        register(new Metric(name, help, "counter", value, null, 1));
+    }
+
+    /**
+     * Registers a gauge: a value that is read from 'value' each time the metrics are exported.
+     * @param name The Prometheus metric name.
+     * @param help A one-line description.
+     * @param value Supplies the current value. Called from the exporting thread.
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        register(new Metric(name, help, "gauge", value, null, 1));
+    }
+
+    /**
+     * Registers a histogram. It is exported as a Prometheus summary with the
+     * 0.5, 0.9, 0.99 and 0.999 quantiles, the sum and the count, plus a "_max" gauge.
+     * @param name The Prometheus metric name.
+     * @param help A one-line description.
+     * @param scale What one recorded unit is worth in the exported unit, for example {@link #NANOS}.
+     * @return The histogram to record into.
+     */
+    public Histogram histogram(String name, String help, double scale) {
+        Histogram histogram = new Histogram();
+        register(new Metric(name, help, "summary", null, histogram, scale));
+        return histogram;
+    }
+
+    /**
+     * @return Every metric in the Prometheus text exposition format (version 0.0.4).
+     */
+    public String toPrometheus() {
+        List<Metric> snapshot;
+        synchronized (metrics) {
+            snapshot = new ArrayList<>(metrics);
+        }
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : snapshot) {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+            if (metric.histogram == null) {
+                line(out, metric.name, "", metric.value.getAsDouble());
+                continue;
+            }
+            Histogram histogram = metric.histogram;
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                line(out, metric.name, "{quantile=\"" + quantile + "\"}", histogram.getValueAtQuantile(quantile) * metric.scale);
+            }
+            line(out, metric.name + "_sum", "", histogram.getSum() * metric.scale);
+            line(out, metric.name + "_count", "", histogram.getCount());
+            out.append("# TYPE ").append(metric.name).append("_max gauge\n");
+            line(out, metric.name + "_max", "", histogram.getMax() * metric.scale);
+        }
+        return out.toString();
+    }
+
+    private void register(Metric metric) {
+        synchronized (metrics) {
+            for (Metric existing : metrics) {
+                if (existing.name.equals(metric.name)) {
+                    throw new IllegalArgumentException("Metric already registered: " + metric.name);
+                }
+            }
+            metrics.add(metric);
+        }
+    }
+
+    private static void line(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.9g", value));
+        }
+        out.append('\n');
+    }
+
+    private static class Metric {
+        final String name;
+        final String help;
+        final String type;
+        final DoubleSupplier value; // Counters and gauges
+        final Histogram histogram; // Summaries
+        final double scale;
+
+        Metric(String name, String help, String type, DoubleSupplier value, Histogram histogram, double scale) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+            this.histogram = histogram;
+            this.scale = scale;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link Metrics} at http://127.0.0.1:&lt;port&gt;/metrics for a Prometheus scraper.
+ * It only listens on the loopback interface.
+ */
+public class MetricsServer {
+
+    private final Metrics metrics;
+    private final HttpServer server;
+
+    /**
+     * Binds the server. Call {@link #start()} to begin serving.
+     * @param metrics The metrics to export.
+     * @param port The local port to listen on (0 picks a free port).
+     */
+    public MetricsServer(Metrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/metrics", this::handle);
+    }
+
+    /**
+     * Starts serving on a background thread.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops serving and releases the port.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+public class Miner {
+
+    // Workers check whether their template went stale every 65536 hashes, since that takes the ledger's lock.
+    private static final long STALE_CHECK_MASK = (1 << 16) - 1;
+
+    // Number of worker threads that search the nonce space.
+    private final int threads;
+    // Long-lived pool of workers, so mining a block does not start new threads every time.
+    private final ExecutorService workers;
+    // Set when someone calls cancel(); every worker checks it between hashes.
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    // Hashes per second measured during the last mining run.
+    private volatile double hashRate;
+    // Total number of hashes tried by this miner since it was created.
+    private final LongAdder totalHashes = new LongAdder();
+
+    /**
+     * Creates a miner that uses one worker per available CPU core.
+     */
+    public Miner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a miner with a fixed number of worker threads.
+     * @param threads How many threads should search for a nonce at the same time.
+     */
+    public Miner(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("A miner needs at least one thread");
+        this.threads = threads;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "miner");
+            thread.setDaemon(true); // Never keep the program alive just because of idle miners.
+            return thread;
+        });
+    }
+
+    /**
+     * Searches for a nonce that gives the block a hash that meets its target.
+     * Worker i tries the nonces i, i + threads, i + 2 * threads, ... so no two workers ever
+     * hash the same nonce. The header is built once and only the 8 nonce bytes change.
+     * @param block The block to mine. Its nonce and hash are updated when a solution is found.
+     * @return true if the block was mined, false if mining was cancelled (or the thread interrupted) first.
+     */
+    public boolean mine(Block block) {
+        BlockTemplate.Header header = new BlockTemplate.Header(block);
+        Solution solution = run(() -> header, () -> false);
+        if (solution == null) return false;
+        block.setNonce(solution.nonce);
+        return true;
+    }
+
+    /**
+     * Mines a block from a template. Workers pick up every header the template publishes while
+     * they search (new transactions, a newer timestamp) and continue their nonce sequence on it.
+     * @param template The template to mine.
+     * @return The mined block, or null if mining was cancelled or the template went stale first.
+     */
+    public Block mine(BlockTemplate template) {
+        Solution solution = run(template::getHeader, template::isStale);
+        return (solution == null) ? null : solution.header.toBlock(solution.nonce);
+    }
+
+    /**
+     * A nonce and the header version it solves.
+     */
+    private static final class Solution {
+        final BlockTemplate.Header header;
+        final long nonce;
+
+        Solution(BlockTemplate.Header header, long nonce) {
+            this.header = header;
+            this.nonce = nonce;
+        }
+    }
+
+    private Solution run(Supplier<BlockTemplate.Header> headers, BooleanSupplier stale) {
+        cancelled.set(false);
+        AtomicReference<Solution> solution = new AtomicReference<>();
+        LongAdder hashes = new LongAdder();
+
+        long start = System.nanoTime();
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            long firstNonce = i;
+            running.add(workers.submit(() -> search(headers, stale, firstNonce, solution, hashes)));
+        }
+        // Every worker is waited for, even after an interrupt: a worker still hashing could otherwise
+        // be revived by the next run clearing 'cancelled', and would publish its solution there.
+        boolean interrupted = false;
+        Throwable failure = null;
+        for (Future<?> future : running) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    cancel(); // The workers stop at their next hash; keep waiting for them.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    cancel();
+                    if (failure == null) failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null) throw new RuntimeException(failure);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        hashRate = hashes.sum() * 1_000_000_000.0 / elapsed;
+        totalHashes.add(hashes.sum());
+        return solution.get();
+    }
+
+    /**
+     * The loop run by a single worker. It uses its thread's MessageDigest and its own buffers,
+     * so nothing is allocated per hash.
+     */
+    private void search(Supplier<BlockTemplate.Header> headers, BooleanSupplier stale, long firstNonce,
+                        AtomicReference<Solution> solution, LongAdder hashes) {
+        MessageDigest digest = Crypto.sha256Digest(); // The worker thread's own; it stays on this thread.
+        byte[] nonceBytes = new byte[8];
+        byte[] hash = new byte[32];
+        long tried = 0;
+        try {
+            for (long nonce = firstNonce; solution.get() == null && !cancelled.get(); nonce += threads) {
+                if ((tried & STALE_CHECK_MASK) == 0 && stale.getAsBoolean()) break;
+                BlockTemplate.Header header = headers.get(); // A volatile read: new headers are picked up at once.
+                digest.update(header.prefix);
+                digest.update(nonceToBytes(nonce, nonceBytes));
+                digest.digest(hash, 0, hash.length);
+                tried++;
+                if (Difficulty.meetsTarget(hash, header.targetBytes)) {
+                    solution.compareAndSet(null, new Solution(header, nonce));
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            hashes.add(tried);
+        }
+    }
+
+    /**
+     * Stops the current mining run. mine() then returns false.
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    /**
+     * @return Hashes per second measured during the last mining run.
+     */
+    public double getHashRate() {
+        return hashRate;
+    }
+
+    /**
+     * @return Total number of hashes tried by this miner.
+     */
+    public long getTotalHashes() {
+        return totalHashes.sum();
+    }
+
+    /**
+     * Stops the worker threads. The miner cannot be used afterwards.
+     */
+    public void shutdown() {
+        cancel();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Writes the nonce as 8 big-endian bytes into the given buffer.
+     * @return The same buffer, for convenience.
+     */
+    static byte[] nonceToBytes(long nonce, byte[] out) {
+        for (int i = 7; i >= 0; i--) {
+            out[i] = (byte) nonce;
+            nonce >>>= 8;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,241 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP interface to the ledger, listening on the loopback interface only.
+ * Every request is handled on its own virtual thread, so many thousands of clients can
+ * wait on the server at once without a thread each. Reads go to the {@link Ledger},
+ * whose optimistic reads never wait for the block assembler, so mining continues.
+ *
+ * Endpoints (addresses are {@link Crypto#address}, amounts are base units):
+ *   GET  /tip                   {"height":..,"hash":".."}
+ *   GET  /balance/{address}     {"address":"..","balance":..}
+ *   GET  /utxos/{address}       {"address":"..","utxos":[{"id":"..","value":..,"parentTransactionId":".."}]}
+ *   GET  /block/{height|hash}   the block in {@link BinaryCodec} format
+ *   GET  /filter/{height|hash}  the block's {@link BloomFilter} in {@link BloomFilter#toBytes()} format
+ *   GET  /history/{address|id}  {"key":"..","transactions":[{"height":..,"index":..,"transactionId":".."}]}
+ *                               every transaction involving an address or output ID, oldest first
+ *   GET  /spent/{outputId}      {"id":"..","spent":..,"height":..,"index":..,"transactionId":".."}
+ *                               where the output was spent; spent is false (and the rest null) if it was not
+ *   POST /transactions          body: a signed transaction in {@link BinaryCodec} format;
+ *                               202 if the mempool admitted it, 409 if it was rejected
+ */
+public class RpcServer {
+
+    // Requests larger than this are rejected; a transaction is a few hundred bytes per input.
+    private static final int MAX_BODY_BYTES = 1 << 20;
+
+    private final Ledger ledger;
+    private final Mempool mempool;
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Binds the server. Call {@link #start()} to begin serving.
+     * @param ledger The ledger to read from.
+     * @param mempool Where submitted transactions go.
+     * @param port The local port to listen on (0 picks a free port).
+     */
+    public RpcServer(Ledger ledger, Mempool mempool, int port) throws IOException {
+        this.ledger = ledger;
+        this.mempool = mempool;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 8192);
+        this.server.setExecutor(handlers);
+        this.server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts serving.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops serving and releases the port.
+     */
+    public void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            String resource = (path.length > 1) ? path[1] : "";
+            String argument = (path.length > 2) ? path[2] : null;
+
+            if (method.equals("POST") && resource.equals("transactions") && argument == null) {
+                submitTransaction(exchange);
+            } else if (!method.equals("GET")) {
+                sendJson(exchange, 405, error("Method not allowed"));
+            } else if (resource.equals("tip") && argument == null) {
+                Ledger.Tip tip = ledger.getTip();
+                sendJson(exchange, 200, "{\"height\":" + tip.height + ",\"hash\":" + quote(tip.hash) + "}");
+            } else if (resource.equals("balance") && argument != null) {
+                sendJson(exchange, 200, "{\"address\":" + quote(argument) + ",\"balance\":" + ledger.getBalance(argument) + "}");
+            } else if (resource.equals("utxos") && argument != null) {
+                sendJson(exchange, 200, utxos(argument));
+            } else if (resource.equals("block") && argument != null) {
+                sendBlock(exchange, argument);
+            } else if (resource.equals("filter") && argument != null) {
+                sendFilter(exchange, argument);
+            } else if (resource.equals("history") && argument != null) {
+                sendJson(exchange, 200, history(argument));
+            } else if (resource.equals("spent") && argument != null) {
+                sendJson(exchange, 200, spent(argument));
+            } else {
+                sendJson(exchange, 404, error("Not found"));
+            }
+        } catch (RuntimeException e) {
+            Log.warn("RPC request failed: " + e);
+        }
+    }
+
+    private void submitTransaction(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (body.length > MAX_BODY_BYTES) {
+            sendJson(exchange, 413, error("Transaction too large"));
+            return;
+        }
+        Transaction transaction;
+        try {
+            transaction = BinaryCodec.decodeTransaction(ByteBuffer.wrap(body));
+        } catch (RuntimeException e) {
+            sendJson(exchange, 400, error("Malformed transaction"));
+            return;
+        }
+        if (mempool.submit(transaction)) {
+            sendJson(exchange, 202, "{\"accepted\":true}");
+        } else {
+            sendJson(exchange, 409, "{\"accepted\":false}");
+        }
+    }
+
+    private String utxos(String address) {
+        List<TransactionOutput> outputs = ledger.getUTXOs(address);
+        StringBuilder json = new StringBuilder("{\"address\":").append(quote(address)).append(",\"utxos\":[");
+        for (int i = 0; i < outputs.size(); i++) {
+            TransactionOutput output = outputs.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(quote(output.id))
+                .append(",\"value\":").append(output.value)
+                .append(",\"parentTransactionId\":").append(quote(output.parentTransactionId)).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private void sendBlock(HttpExchange exchange, String heightOrHash) throws IOException {
+        Block block = findBlock(heightOrHash);
+        if (block == null) {
+            sendJson(exchange, 404, error("No such block"));
+            return;
+        }
+        send(exchange, 200, "application/octet-stream", BinaryCodec.encode(block));
+    }
+
+    private void sendFilter(HttpExchange exchange, String heightOrHash) throws IOException {
+        Block block = findBlock(heightOrHash);
+        if (block == null) {
+            sendJson(exchange, 404, error("No such block"));
+            return;
+        }
+        send(exchange, 200, "application/octet-stream", block.getFilter().toBytes());
+    }
+
+    private Block findBlock(String heightOrHash) {
+        if (heightOrHash.chars().allMatch(Character::isDigit) && heightOrHash.length() < 10) {
+            int height = Integer.parseInt(heightOrHash);
+            return (height < ledger.getHeight()) ? ledger.getBlock(height) : null;
+        }
+        return ledger.getBlock(heightOrHash);
+    }
+
+    private String history(String key) {
+        List<TransactionLocation> locations = ledger.findTransactions(key);
+        StringBuilder json = new StringBuilder("{\"key\":").append(quote(key)).append(",\"transactions\":[");
+        Block block = null;
+        int blockHeight = -1; // Consecutive transactions are often in the same block.
+        boolean first = true;
+        for (TransactionLocation location : locations) {
+            if (location.height != blockHeight) {
+                block = (location.height < ledger.getHeight()) ? ledger.getBlock(location.height) : null;
+                blockHeight = location.height;
+            }
+            if (block == null || location.index >= block.transactions.size()) continue; // Reorganized meanwhile.
+            if (!first) json.append(',');
+            first = false;
+            json.append("{\"height\":").append(location.height)
+                .append(",\"index\":").append(location.index)
+                .append(",\"transactionId\":").append(quote(block.transactions.get(location.index).transactionId)).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private String spent(String outputId) {
+        TransactionLocation location = ledger.findSpender(outputId);
+        Block block = (location == null || location.height >= ledger.getHeight()) ? null : ledger.getBlock(location.height);
+        if (block == null || location.index >= block.transactions.size()) {
+            return "{\"id\":" + quote(outputId) + ",\"spent\":false,\"height\":null,\"index\":null,\"transactionId\":null}";
+        }
+        return "{\"id\":" + quote(outputId) + ",\"spent\":true,\"height\":" + location.height
+                + ",\"index\":" + location.index
+                + ",\"transactionId\":" + quote(block.transactions.get(location.index).transactionId) + "}";
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    /**
+     * @return The text as a JSON string, or null. Escapes quotes, backslashes and control characters.
+     */
+    private static String quote(String text) {
+        if (text == null) return "null";
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,66 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.security.Security;
+
+/**
+ * Check for {@link RpcServer}'s handling of malformed submissions: transactions whose input or
+ * output count claims far more elements than the body holds must be answered with 400, without
+ * the decoder allocating for the claimed count. Also checks /tip on an empty chain.
+ * Exits with status 1 if any answer is wrong.
+ *   java -cp .:bcprov.jar RpcServerCheck
+ */
+public class RpcServerCheck {
+
+    public static void main(String[] args) throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        Ledger ledger = new Ledger(Amount.COIN / 10, new Difficulty(1, Integer.MAX_VALUE, 1000));
+        RpcServer server = new RpcServer(ledger, new Mempool(100, ledger), 0);
+        server.start();
+        HttpClient client = HttpClient.newHttpClient();
+        String base = "http://127.0.0.1:" + server.getPort();
+        URI uri = URI.create(base + "/transactions");
+
+        int wrong = 0;
+        HttpResponse<String> tip = client.send(HttpRequest.newBuilder(URI.create(base + "/tip")).build(), HttpResponse.BodyHandlers.ofString());
+        boolean tipOk = tip.statusCode() == 200 && tip.body().equals("{\"height\":-1,\"hash\":null}");
+        System.out.println((tipOk ? "ok    " : "WRONG ") + "empty tip: " + tip.statusCode() + " " + tip.body());
+        if (!tipOk) wrong++;
+        wrong += expect(client, uri, "huge input count", craftedTransaction(Integer.MAX_VALUE, 0), 400);
+        wrong += expect(client, uri, "negative input count", craftedTransaction(-2, 0), 400);
+        wrong += expect(client, uri, "huge output count", craftedTransaction(-1, Integer.MAX_VALUE), 400);
+        wrong += expect(client, uri, "negative output count", craftedTransaction(0, -1), 400);
+        wrong += expect(client, uri, "truncated body", new byte[] {BinaryCodec.VERSION}, 400);
+
+        server.stop();
+        System.out.println(wrong + " wrong");
+        System.exit(wrong == 0 ? 0 : 1);
+    }
+
+    /**
+     * @return A transaction with no ID, keys or signature whose counts are the given ones but
+     *         which holds no inputs or outputs at all.
+     */
+    private static byte[] craftedTransaction(int inputCount, int outputCount) {
+        ByteBuffer out = ByteBuffer.allocate(24);
+        out.put(BinaryCodec.VERSION);
+        out.put((byte) 0);      // no id
+        out.putShort((short) 0); // no sender
+        out.putShort((short) 0); // no recipient
+        out.putLong(1);
+        out.putShort((short) 0xFFFF); // no signature
+        out.putInt(inputCount);
+        out.putInt(outputCount);
+        return out.array();
+    }
+
+    private static int expect(HttpClient client, URI uri, String name, byte[] body, int status) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        boolean ok = response.statusCode() == status;
+        System.out.println((ok ? "ok    " : "WRONG ") + name + ": " + response.statusCode() + " " + response.body());
+        return ok ? 0 : 1;
+    }
+}
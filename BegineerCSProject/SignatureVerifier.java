@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SignatureVerifier {
+
+    // Number of worker threads used for verification.
+    private final int threads;
+    // Long-lived pool of workers.
+    private final ExecutorService workers;
+
+    /**
+     * Creates a verifier that uses one worker per available CPU core.
+     */
+    public SignatureVerifier() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a verifier with a fixed number of worker threads.
+     * @param threads How many signatures may be checked at the same time.
+     */
+    public SignatureVerifier(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("A verifier needs at least one thread");
+        this.threads = threads;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "signature-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Verifies the signatures of many transactions at once, for example a whole block or mempool.
+     * The list is split into chunks and every chunk is checked on a worker thread.
+     * @param transactions The transactions to check.
+     * @return One result per transaction, in the same order: true if its signature is valid.
+     */
+    public boolean[] verifyAll(List<Transaction> transactions) {
+        int count = transactions.size();
+        boolean[] results = new boolean[count];
+        if (count == 0) return results;
+
+        // A few chunks per thread, so a slow chunk does not leave the other threads idle.
+        int chunkSize = Math.max(1, count / (threads * 4));
+        List<Future<?>> running = new ArrayList<>();
+        for (int from = 0; from < count; from += chunkSize) {
+            int start = from;
+            int end = Math.min(count, from + chunkSize);
+            running.add(workers.submit(() -> {
+                // Crypto keeps one Signature per worker thread, so there is no provider lookup per signature.
+                for (int i = start; i < end; i++) {
+                    results[i] = verify(transactions.get(i));
+                }
+            }));
+        }
+        for (Future<?> future : running) {
+            try {
+                future.get(); // Also makes the results written by the workers visible here.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Verifies a batch and reports whether every signature in it is valid.
+     * @param transactions The transactions to check.
+     * @return true if all signatures are valid.
+     */
+    public boolean allValid(List<Transaction> transactions) {
+        for (boolean valid : verifyAll(transactions)) {
+            if (!valid) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops the worker threads. The verifier cannot be used afterwards.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private static boolean verify(Transaction transaction) {
+        if (transaction == null) return false;
+        return Crypto.verify(transaction.sender, transaction.getSignatureData(), transaction.signature);
+    }
+}
@@ -0,0 +1,508 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs several nodes in one process, connected by a simulated network, to see how the ledger
+ * behaves with propagation delay, lost messages and miners competing for the same height.
+ *
+ * Every node has its own {@link Ledger} and {@link Mempool} and runs on its own virtual thread.
+ * Nodes exchange transactions and blocks as {@link BinaryCodec} bytes, never shared objects. A
+ * message arrives after the link latency, a random jitter and the time its size takes at the link
+ * bandwidth, or is lost; a node that receives a block whose parent it lacks asks the sender for it,
+ * and every node sends its tip to a random peer once per block interval.
+ * Mining is not real proof of work: each node finds its next block after an exponentially
+ * distributed time, so blocks come every 'blockMillis' across the network on average, and every
+ * block has the easiest target. Wallets pay each other at 'tps' transactions per second through
+ * the node they are connected to.
+ *
+ * Time is virtual: events run in timestamp order as fast as they can be handled, one at a time,
+ * and every random choice, key and signature is drawn from the seed, so a run with the same
+ * parameters and seed always gives the same report.
+ *
+ *   java -cp .:bcprov.jar Simulation [name=value ...]
+ *
+ * Parameters (defaults): nodes (8), peers (3, extra links per node besides a ring), wallets (200),
+ * tps (20), seconds (600), blockMillis (10000), latencyMillis (100), jitterMillis (50),
+ * mbps (10, link bandwidth), loss (0.01, share of messages lost), seed (1).
+ */
+public class Simulation {
+
+    // Virtual time starts here (2020-09-13), so block timestamps are never ahead of the real clock.
+    private static final long EPOCH = 1_600_000_000_000L;
+    // After the run, messages still in flight are delivered for this long, without new blocks or payments.
+    private static final long SETTLE_MILLIS = 60_000;
+    // A wallet spends an output again if its payment has not been confirmed after this many block intervals.
+    private static final int RESEND_AFTER_BLOCKS = 6;
+    private static final int OUTPUTS_PER_WALLET = 10;
+    private static final int MAX_BLOCK_TRANSACTIONS = 5000;
+
+    // --- Parameters ---
+    private final int nodeCount;
+    private final int extraPeers;
+    private final int walletCount;
+    private final double tps;
+    private final long durationMillis;
+    private final long blockMillis;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double mbps;
+    private final double loss;
+    // Many more blocks than usual have the same timestamp, and there is no retargeting.
+    private final Difficulty difficulty;
+
+    // Something that happens at a virtual time, on one node's thread (or the scheduler's if node is null).
+    private static final class Event {
+        final long time;
+        final long sequence;
+        final Node node;
+        final Runnable action;
+
+        Event(long time, long sequence, Node node, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.node = node;
+            this.action = action;
+        }
+    }
+
+    // A payment that has been submitted, by the ID of the output it spends.
+    private static final class Payment {
+        final long submitted;
+        final Node home;
+        boolean confirmed;
+
+        Payment(long submitted, Node home) {
+            this.submitted = submitted;
+            this.home = home;
+        }
+    }
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>(
+            Comparator.comparingLong((Event event) -> event.time).thenComparingLong(event -> event.sequence));
+    private long sequence;
+    private long now = EPOCH;
+    private boolean running = true; // false while settling: no new blocks or payments
+
+    private final Random random;
+    private final SecureRandom keyRandom;
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Wallet> wallets = new ArrayList<>();
+    private final List<Node> homes = new ArrayList<>(); // the node each wallet is connected to
+    // When each output was last spent by a wallet, so it is not spent twice while the payment is pending.
+    private final HashMap<String, Long> spentAt = new HashMap<>();
+    private final HashMap<String, Payment> payments = new HashMap<>();
+
+    // --- Results ---
+    private long offered;
+    private long submitted;
+    private long noFunds;
+    private long blocksMined;
+    private long reorganizations;
+    private long invalidBlocks;
+    private long messagesSent;
+    private long messagesLost;
+    private long bytesSent;
+    private final Histogram confirmationMillis = new Histogram();
+
+    /**
+     * One node: a ledger, a mempool and the peers it gossips with.
+     */
+    private final class Node {
+        final int id;
+        final Ledger ledger = new Ledger(Blockchain.minimumTransaction, difficulty);
+        final Mempool mempool = new Mempool(100_000, ledger);
+        final List<Node> peers = new ArrayList<>();
+        // Digests of transactions and hashes of blocks already received, so gossip does not loop.
+        final HashSet<String> seen = new HashSet<>();
+        // Blocks whose parent has not arrived yet, by the parent's hash, and the same blocks by their own hash.
+        final HashMap<String, List<Block>> orphans = new HashMap<>();
+        final HashMap<String, Block> orphansByHash = new HashMap<>();
+        // Blocks of which this node has already counted the confirmations.
+        final HashSet<String> scanned = new HashSet<>();
+        final ExecutorService thread;
+
+        Node(int id) {
+            this.id = id;
+            this.thread = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("node-" + id).factory());
+        }
+
+        void receiveTransaction(Node from, byte[] bytes) {
+            if (!seen.add(Crypto.sha256Hex(bytes))) return;
+            Transaction transaction = BinaryCodec.decodeTransaction(ByteBuffer.wrap(bytes));
+            if (mempool.submit(transaction)) relay(from, bytes, false);
+        }
+
+        void receiveBlock(Node from, byte[] bytes) {
+            if (!seen.add(BinaryCodec.decodeBlockHeader(ByteBuffer.wrap(bytes)).hash)) return; // Most announced tips are known.
+            Block block = BinaryCodec.decodeBlock(ByteBuffer.wrap(bytes));
+            boolean valid = block.hash.equals(block.calculateHash());
+            if (valid) {
+                for (boolean signature : block.verifySignatures()) valid &= signature;
+            }
+            if (!valid) {
+                invalidBlocks++;
+                return;
+            }
+            accept(from, block, bytes);
+        }
+
+        void receiveRequest(Node from, String hash) {
+            Block block = ledger.getBlock(hash);
+            if (block != null) send(this, from, BinaryCodec.encode(block), true);
+        }
+
+        /**
+         * Asks a peer for the oldest block missing below an orphan. Later blocks of the same branch
+         * ask again, so a lost request or reply only delays the branch.
+         */
+        void requestParent(Node peer, Block orphan) {
+            String missing = orphan.previousHash;
+            while (orphansByHash.containsKey(missing)) missing = orphansByHash.get(missing).previousHash;
+            String hash = missing;
+            messagesSent++;
+            bytesSent += 32;
+            if (random.nextDouble() < loss) {
+                messagesLost++;
+                return;
+            }
+            schedule(now + delay(32), peer, () -> peer.receiveRequest(this, hash));
+        }
+
+        void accept(Node from, Block block, byte[] bytes) {
+            Ledger.Result result = ledger.acceptBlock(block);
+            if (result == Ledger.Result.ORPHAN) {
+                orphans.computeIfAbsent(block.previousHash, hash -> new ArrayList<>()).add(block);
+                orphansByHash.put(block.hash, block);
+                if (from != null) requestParent(from, block);
+                return;
+            }
+            if (result == Ledger.Result.INVALID) invalidBlocks++;
+            if (result == Ledger.Result.INVALID || result == Ledger.Result.DUPLICATE) return;
+            if (result == Ledger.Result.REORGANIZED) reorganizations++;
+            if (result != Ledger.Result.SIDE_BRANCH) countConfirmations();
+            relay(from, bytes, true);
+            List<Block> children = orphans.remove(block.hash);
+            if (children != null) {
+                for (Block child : children) {
+                    orphansByHash.remove(child.hash);
+                    accept(from, child, BinaryCodec.encode(child));
+                }
+            }
+        }
+
+        /**
+         * Records the payments of this node's wallets that are now in a block of its best chain.
+         * After a reorganization every block of the new branch is checked, not just the tip.
+         */
+        void countConfirmations() {
+            for (int height = ledger.getHeight() - 1; height > 0; height--) {
+                Block block = ledger.getBlock(height);
+                if (!scanned.add(block.hash)) break;
+                for (Transaction transaction : block.transactions) {
+                    Payment payment = payments.get(transaction.inputs.get(0).transactionOutputId);
+                    if (payment == null || payment.home != this || payment.confirmed) continue;
+                    payment.confirmed = true;
+                    confirmationMillis.record(now - payment.submitted);
+                }
+            }
+        }
+
+        void mine() {
+            if (!running) return;
+            Block tip = ledger.getLastBlock();
+            long timeStamp = Math.max(now, tip.getTimeStamp());
+            Block block = new Block(null, tip.hash, timeStamp, ledger.getNextTarget(), 0, new ArrayList<>());
+            List<Transaction> batch;
+            try {
+                batch = mempool.drain(MAX_BLOCK_TRANSACTIONS, 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (Transaction transaction : batch) {
+                block.addTransaction(transaction, ledger); // Those whose inputs are gone are dropped.
+                mempool.release(transaction);
+            }
+            block.hash = block.calculateHash(); // Every hash meets the easiest target.
+            blocksMined++;
+            seen.add(block.hash);
+            accept(null, block, BinaryCodec.encode(block));
+            scheduleMining(this);
+        }
+
+        /**
+         * A wallet connected to this node pays another wallet, spending the first of its outputs
+         * that covers the amount and is not waiting for an earlier payment to be confirmed.
+         */
+        void pay(Wallet payer, Wallet payee, long amount) {
+            offered++;
+            TransactionOutput spend = null;
+            for (TransactionOutput output : ledger.getUTXOs(Crypto.address(payer.publicKey))) {
+                Long spent = spentAt.get(output.id);
+                if (spent != null && now - spent < RESEND_AFTER_BLOCKS * blockMillis) continue;
+                if (output.value >= amount) {
+                    spend = output;
+                    break;
+                }
+            }
+            if (spend == null) {
+                noFunds++;
+                return;
+            }
+            ArrayList<TransactionInput> inputs = new ArrayList<>();
+            inputs.add(new TransactionInput(spend.id));
+            Transaction transaction = new Transaction(payer.publicKey, payee.publicKey, amount, inputs);
+            transaction.generateSignature(payer.privateKey, keyRandom);
+            spentAt.put(spend.id, now);
+            payments.putIfAbsent(spend.id, new Payment(now, this));
+            submitted++;
+            receiveTransaction(null, BinaryCodec.encode(transaction));
+        }
+
+        /**
+         * Sends the tip to a random peer, so a peer that lost the block (or the request for it) catches up
+         * without waiting for the next block of the branch. Peers that have it already drop it unread.
+         */
+        void announceTip() {
+            if (!peers.isEmpty()) send(this, peers.get(random.nextInt(peers.size())), BinaryCodec.encode(ledger.getLastBlock()), true);
+            schedule(now + blockMillis, this, this::announceTip);
+        }
+
+        void relay(Node from, byte[] bytes, boolean isBlock) {
+            for (Node peer : peers) {
+                if (peer != from) send(this, peer, bytes, isBlock);
+            }
+        }
+    }
+
+    public Simulation(int nodeCount, int extraPeers, int walletCount, double tps, long durationMillis, long blockMillis,
+                      long latencyMillis, long jitterMillis, double mbps, double loss, long seed) {
+        this.nodeCount = nodeCount;
+        this.extraPeers = extraPeers;
+        this.walletCount = walletCount;
+        this.tps = tps;
+        this.durationMillis = durationMillis;
+        this.blockMillis = blockMillis;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.mbps = mbps;
+        this.loss = loss;
+        this.difficulty = new Difficulty(0, Integer.MAX_VALUE, blockMillis);
+        this.random = new Random(seed);
+        try {
+            this.keyRandom = SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        this.keyRandom.setSeed(seed); // Seeded before first use, SHA1PRNG gives the same sequence every time.
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) throw new IllegalArgumentException("Expected name=value: " + arg);
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        Simulation simulation = new Simulation(
+                Integer.parseInt(options.getOrDefault("nodes", "8")),
+                Integer.parseInt(options.getOrDefault("peers", "3")),
+                Integer.parseInt(options.getOrDefault("wallets", "200")),
+                Double.parseDouble(options.getOrDefault("tps", "20")),
+                Long.parseLong(options.getOrDefault("seconds", "600")) * 1000,
+                Long.parseLong(options.getOrDefault("blockMillis", "10000")),
+                Long.parseLong(options.getOrDefault("latencyMillis", "100")),
+                Long.parseLong(options.getOrDefault("jitterMillis", "50")),
+                Double.parseDouble(options.getOrDefault("mbps", "10")),
+                Double.parseDouble(options.getOrDefault("loss", "0.01")),
+                Long.parseLong(options.getOrDefault("seed", "1")));
+
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Keep per-block messages out of the report.
+        Log.setLevel(Log.Level.ERROR); // Rejected transactions and reorganizations are expected here.
+        simulation.run();
+        simulation.report(report);
+        System.exit(0);
+    }
+
+    /**
+     * Builds the network, runs the simulated time and lets the messages still in flight arrive.
+     */
+    public void run() throws InterruptedException {
+        for (int i = 0; i < nodeCount; i++) nodes.add(new Node(i));
+        connect();
+        Block genesis = createGenesis();
+        byte[] genesisBytes = BinaryCodec.encode(genesis);
+        for (Node node : nodes) {
+            Block copy = BinaryCodec.decodeBlock(ByteBuffer.wrap(genesisBytes));
+            node.seen.add(copy.hash);
+            node.ledger.acceptBlock(copy);
+            scheduleMining(node);
+            schedule(now + blockMillis, node, node::announceTip);
+        }
+        if (tps > 0) schedulePayment();
+
+        long end = EPOCH + durationMillis;
+        while (!events.isEmpty()) {
+            Event event = events.peek();
+            if (running && event.time > end) {
+                running = false;
+                end += SETTLE_MILLIS;
+            }
+            if (event.time > end) break;
+            events.poll();
+            now = event.time;
+            if (event.node == null) {
+                event.action.run();
+            } else {
+                // The node handles the event on its own thread; waiting for it keeps the run reproducible.
+                CompletableFuture.runAsync(event.action, event.node.thread).join();
+            }
+        }
+        for (Node node : nodes) node.thread.shutdown();
+    }
+
+    /**
+     * Prints what happened during the run.
+     */
+    public void report(PrintStream out) {
+        Node observer = nodes.get(0);
+        int height = observer.ledger.getHeight();
+        long confirmed = 0;
+        for (int h = 1; h < height; h++) confirmed += observer.ledger.getBlock(h).transactions.size();
+        HashSet<String> tips = new HashSet<>();
+        for (Node node : nodes) tips.add(node.ledger.getLastBlock().hash);
+        double seconds = durationMillis / 1000.0;
+
+        out.printf("nodes=%d peers=%d+ring wallets=%d tps=%.1f seconds=%.0f blockMillis=%d latency=%d+%d ms mbps=%.1f loss=%.3f%n",
+                nodeCount, extraPeers, walletCount, tps, seconds, blockMillis, latencyMillis, jitterMillis, mbps, loss);
+        out.printf("payments: %d offered, %d submitted, %d skipped (no spendable output)%n", offered, submitted, noFunds);
+        out.printf("throughput: %d transactions confirmed on the final chain (%.1f tx/s)%n", confirmed, confirmed / seconds);
+        out.printf("blocks: %d mined, %d on the final chain, orphan rate %.2f%%, %d reorganizations, %d invalid%n",
+                blocksMined, height - 1, blocksMined == 0 ? 0.0 : 100.0 * (blocksMined - (height - 1)) / blocksMined,
+                reorganizations, invalidBlocks);
+        out.printf("confirmation latency (ms): p50=%d p90=%d p99=%d max=%d over %d payments%n",
+                confirmationMillis.getValueAtQuantile(0.5), confirmationMillis.getValueAtQuantile(0.9),
+                confirmationMillis.getValueAtQuantile(0.99), confirmationMillis.getMax(), confirmationMillis.getCount());
+        out.printf("network: %d messages (%.1f MB), %d lost%n", messagesSent, bytesSent / 1e6, messagesLost);
+        out.printf("consensus: %d distinct tips after settling%s%n", tips.size(), tips.size() == 1 ? "" : " (not converged: tied branches, or lost blocks with no later block to recover them)");
+    }
+
+    // --- Setup ---
+
+    /**
+     * Links every node to the next one in a ring, so the network is connected, plus 'extraPeers' random others.
+     */
+    private void connect() {
+        for (int i = 0; i < nodeCount && nodeCount > 1; i++) {
+            link(nodes.get(i), nodes.get((i + 1) % nodeCount));
+            for (int p = 0; p < extraPeers; p++) {
+                link(nodes.get(i), nodes.get(random.nextInt(nodeCount)));
+            }
+        }
+    }
+
+    private void link(Node a, Node b) {
+        if (a == b || a.peers.contains(b)) return;
+        a.peers.add(b);
+        b.peers.add(a);
+    }
+
+    /**
+     * @return A genesis block that gives every wallet {@value #OUTPUTS_PER_WALLET} outputs, so each
+     *         wallet can have that many payments pending before it has to wait for change.
+     */
+    private Block createGenesis() {
+        Wallet coinbase = new Wallet(keyRandom);
+        for (int i = 0; i < walletCount; i++) {
+            wallets.add(new Wallet(keyRandom));
+            homes.add(nodes.get(random.nextInt(nodeCount)));
+        }
+        Transaction transaction = new Transaction(coinbase.publicKey, wallets.get(0).publicKey, Amount.ofCoins(1_000), null);
+        transaction.generateSignature(coinbase.privateKey, keyRandom);
+        transaction.transactionId = "0";
+        int output = 0;
+        for (Wallet wallet : wallets) {
+            for (int i = 0; i < OUTPUTS_PER_WALLET; i++) {
+                transaction.outputs.add(new TransactionOutput(wallet.publicKey, Amount.ofCoins(1_000), "0-" + output++));
+            }
+        }
+        Block genesis = new Block(null, "0", EPOCH, difficulty.limit, 0, new ArrayList<>());
+        genesis.addTransaction(transaction, nodes.get(0).ledger);
+        genesis.hash = genesis.calculateHash();
+        return genesis;
+    }
+
+    // --- Events ---
+
+    private void schedule(long time, Node node, Runnable action) {
+        events.add(new Event(time, sequence++, node, action));
+    }
+
+    /**
+     * Schedules the next block found by 'node'. Each node has an equal share of the hash rate,
+     * so it finds a block every nodeCount * blockMillis on average.
+     */
+    private void scheduleMining(Node node) {
+        schedule(now + exponential((double) nodeCount * blockMillis), node, node::mine);
+    }
+
+    /**
+     * Schedules the next payment: a random wallet pays 1 to 10 coins to another.
+     */
+    private void schedulePayment() {
+        schedule(now + exponential(1000.0 / tps), null, () -> {
+            if (!running) return;
+            int payer = random.nextInt(walletCount);
+            Wallet payee = wallets.get(random.nextInt(walletCount));
+            long amount = Amount.COIN * (1 + random.nextInt(10));
+            Node home = homes.get(payer);
+            schedule(now, home, () -> home.pay(wallets.get(payer), payee, amount));
+            schedulePayment();
+        });
+    }
+
+    /**
+     * Sends a message over the link between two nodes; it arrives after the link's delay, or is lost.
+     */
+    private void send(Node from, Node to, byte[] bytes, boolean isBlock) {
+        messagesSent++;
+        bytesSent += bytes.length;
+        if (random.nextDouble() < loss) {
+            messagesLost++;
+            return;
+        }
+        if (isBlock) {
+            schedule(now + delay(bytes.length), to, () -> to.receiveBlock(from, bytes));
+        } else {
+            schedule(now + delay(bytes.length), to, () -> to.receiveTransaction(from, bytes));
+        }
+    }
+
+    /**
+     * @return The time a message of 'length' bytes takes: latency, jitter and transmission time.
+     */
+    private long delay(int length) {
+        long transmission = (long) Math.ceil(length * 8 / (mbps * 1000)); // bits / (bits per ms)
+        return latencyMillis + (jitterMillis > 0 ? random.nextInt((int) jitterMillis + 1) : 0) + transmission;
+    }
+
+    private long exponential(double mean) {
+        return Math.max(1, Math.round(-Math.log(1 - random.nextDouble()) * mean));
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Consistency check for {@link Ledger#snapshot()}: blocks are applied to a ledger on one thread
+ * while the main thread takes snapshots as fast as it can. Every snapshot must hold exactly the
+ * outputs the chain has after the block it names, which is checked by replaying the blocks.
+ * Exits with status 1 if a snapshot is wrong.
+ *   java -cp .:bcprov.jar SnapshotCheck [blocks] [transactions per block]
+ */
+public class SnapshotCheck {
+
+    public static void main(String[] args) throws InterruptedException {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        int blockCount = (args.length > 0) ? Integer.parseInt(args[0]) : 400;
+        int perBlock = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        Difficulty difficulty = new Difficulty(1, Integer.MAX_VALUE, 1000);
+
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Keep per-block messages out of the report.
+
+        // Build the chain on its own ledger: one wallet per transaction slot, so no wallet
+        // spends its change before the block holding it is applied.
+        Ledger builder = new Ledger(Blockchain.minimumTransaction, difficulty);
+        List<Wallet> wallets = new ArrayList<>();
+        for (int i = 0; i < perBlock; i++) {
+            Wallet wallet = new Wallet();
+            wallet.ledger = builder;
+            wallet.mempool = null;
+            wallets.add(wallet);
+        }
+        Wallet coinbase = new Wallet();
+        Transaction genesis = new Transaction(coinbase.publicKey, wallets.get(0).publicKey, Amount.ofCoins(1_000_000), null);
+        genesis.generateSignature(coinbase.privateKey);
+        genesis.transactionId = "0";
+        for (int i = 0; i < wallets.size(); i++) {
+            genesis.outputs.add(new TransactionOutput(wallets.get(i).publicKey, Amount.ofCoins(1_000_000), "0-" + i));
+        }
+        List<Block> blocks = new ArrayList<>();
+        Block block = new Block("0");
+        block.addTransaction(genesis, builder);
+        Random random = new Random(1);
+        while (true) {
+            block.mineBlock(builder.getNextTarget());
+            if (!builder.applyBlock(block)) throw new IllegalStateException("Block " + blocks.size() + " was not applied");
+            blocks.add(block);
+            if (blocks.size() > blockCount) break;
+            block = new Block(block.hash);
+            for (Wallet wallet : wallets) {
+                Wallet recipient = wallets.get(random.nextInt(wallets.size()));
+                block.addTransaction(wallet.sendFunds(recipient.publicKey, Amount.COIN), builder);
+            }
+        }
+
+        // Apply the chain to a fresh ledger while snapshots are taken.
+        Ledger ledger = new Ledger(builder.minimumTransaction, difficulty);
+        Thread applier = new Thread(() -> {
+            for (Block next : blocks) ledger.acceptBlock(next);
+        }, "snapshot-check-apply");
+        long start = System.nanoTime();
+        applier.start();
+        List<UTXOSnapshot> snapshots = new ArrayList<>();
+        while (applier.isAlive()) {
+            UTXOSnapshot snapshot = ledger.snapshot();
+            if (snapshot != null) snapshots.add(snapshot);
+        }
+        applier.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        // Snapshots come in height order, so one replay checks them all.
+        UTXOSet replayed = new UTXOSet();
+        int replayedHeight = -1;
+        int wrong = 0;
+        for (UTXOSnapshot snapshot : snapshots) {
+            while (replayedHeight < snapshot.height) {
+                replayedHeight++;
+                for (Transaction transaction : blocks.get(replayedHeight).transactions) replayed.apply(transaction);
+            }
+            Map<String, Long> expected = new HashMap<>();
+            for (TransactionOutput output : replayed.asMap().values()) expected.put(output.id, output.value);
+            Map<String, Long> actual = new HashMap<>();
+            for (TransactionOutput output : snapshot.outputs) actual.put(output.id, output.value);
+            if (!snapshot.blockHash.equals(blocks.get(snapshot.height).hash)
+                    || actual.size() != snapshot.outputs.size() || !actual.equals(expected)) {
+                wrong++;
+                report.println("wrong snapshot at height " + snapshot.height);
+            }
+        }
+
+        report.printf("blocks=%d transactions per block=%d, applied in %.2f s%n", blocks.size(), perBlock, elapsed);
+        if (snapshots.isEmpty()) {
+            report.println("snapshots: none taken");
+        } else {
+            report.printf("snapshots: %d taken at heights %d..%d, %d wrong%n", snapshots.size(),
+                    snapshots.get(0).height, snapshots.get(snapshots.size() - 1).height, wrong);
+        }
+        System.exit(wrong == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a {@link UTXOSnapshot} of a ledger in the background at a fixed interval,
+ * whenever enough new blocks have been applied since the last one.
+ */
+public class SnapshotScheduler {
+
+    private final Ledger ledger;
+    private final Path file;
+    private final int minBlocks;
+    private final ScheduledExecutorService timer;
+    // Height of the block the last written snapshot belongs to (-1 = none yet).
+    private volatile int lastHeight = -1;
+
+    /**
+     * @param ledger The ledger to snapshot.
+     * @param file Where snapshots are written. Each one replaces the previous one.
+     * @param minBlocks How many blocks must be applied before a new snapshot is worth writing.
+     */
+    public SnapshotScheduler(Ledger ledger, Path file, int minBlocks) {
+        this.ledger = ledger;
+        this.file = file;
+        this.minBlocks = Math.max(1, minBlocks);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "utxo-snapshots");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts checking every 'periodSeconds' whether a snapshot is due.
+     * @param periodSeconds Time between checks.
+     */
+    public void start(long periodSeconds) {
+        timer.scheduleWithFixedDelay(() -> {
+            if (ledger.getHeight() - 1 - lastHeight >= minBlocks) writeNow();
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the background checks. A snapshot that is being written is finished first.
+     */
+    public void stop() throws InterruptedException {
+        timer.shutdown();
+        timer.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Takes and writes a snapshot on the calling thread, unless the tip has not changed since the last one.
+     * @return true if a snapshot was written.
+     */
+    public synchronized boolean writeNow() {
+        UTXOSnapshot snapshot = ledger.snapshot();
+        if (snapshot == null || snapshot.height == lastHeight) return false;
+        try {
+            long start = System.nanoTime();
+            snapshot.write(file);
+            lastHeight = snapshot.height;
+            Log.info("Wrote UTXO snapshot at height " + snapshot.height + " (" + snapshot.outputs.size() + " outputs, "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms)");
+            return true;
+        } catch (IOException e) {
+            Log.warn("Could not write UTXO snapshot: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -1,174 +1,241 @@
-import java.security.*;
-import java.util.ArrayList;
-import java.util.Base64;
-
-public class Transaction {
-
-    public String transactionId; // A unique identifier for the transaction.
-    public PublicKey sender; // The sender's public key (address).
-    public PublicKey recipient; // The recipient's public key (address).
-    public double value; // The amount to be transferred.
-    public byte[] signature; // A digital signature to prevent tampering.
-
-    public ArrayList<TransactionInput> inputs = new ArrayList<>();
-    public ArrayList<TransactionOutput> outputs = new ArrayList<>();
-
-    private static int sequence = 0; // A rough count of how many transactions have been generated.
-
-    /**
-     * Constructor for the Transaction class.
-     * @param from The sender's public key.
-     * @param to The recipient's public key.
-     * @param value The amount to be transferred.
-     * @param inputs The list of unspent transaction outputs to be used as inputs.
-     */
-    public Transaction(PublicKey from, PublicKey to, double value,  ArrayList<TransactionInput> inputs) {
-        this.sender = from;
-        this.recipient = to;
-        this.value = value;
-        this.inputs = inputs;
-    }
-
-    /**
-     * Calculates the hash of the transaction, which will serve as its unique ID.
-     */
-    private String calculateHash() {
-        sequence++; // Increase the sequence to avoid two identical transactions having the same hash.
-        return applySha256(
-                publicKeyToString(sender) +
-                publicKeyToString(recipient) +
-                Double.toString(value) + sequence
-        );
-    }
-
-    /**
-     * Generates a digital signature for the transaction data.
-     * @param privateKey The sender's private key used for signing.
-     */
-    public void generateSignature(PrivateKey privateKey) {
-        String data = publicKeyToString(sender) + publicKeyToString(recipient) + Double.toString(value);
-        signature = applyECDSASig(privateKey, data);
-    }
-
-    /**
-     * Verifies that the digital signature is valid.
-     * @return true if the signature is valid, false otherwise.
-     */
-    public boolean verifySignature() {
-        String data = publicKeyToString(sender) + publicKeyToString(recipient) + Double.toString(value);
-        return verifyECDSASig(sender, data, signature);
-    }
-
-    /**
-     * Processes the transaction by verifying the signature, checking inputs, creating outputs,
-     * and updating the global list of unspent transactions (UTXOs).
-     * @return true if the transaction is valid and processed successfully, false otherwise.
-     */
-    public boolean processTransaction() {
-
-        if (!verifySignature()) {
-            System.out.println("# Transaction Signature failed to verify");
-            return false;
-        }
-
-        // Gather transaction inputs (Make sure they are unspent):
-        for (TransactionInput i : inputs) {
-            i.UTXO = Blockchain.UTXOs.get(i.transactionOutputId);
-        }
-
-        // Check if the transaction is valid:
-        if (getInputsValue() < Blockchain.minimumTransaction) {
-            System.out.println("# Transaction Inputs too small: " + getInputsValue());
-            return false;
-        }
-
-        // Generate transaction outputs:
-        double leftOver = getInputsValue() - value; // Get value of inputs then the left over change.
-        transactionId = calculateHash();
-        outputs.add(new TransactionOutput(this.recipient, value, transactionId)); // Send value to recipient.
-        outputs.add(new TransactionOutput(this.sender, leftOver, transactionId)); // Send the left over 'change' back to the sender.
-
-        // Add outputs to the unspent list
-        for (TransactionOutput o : outputs) {
-            Blockchain.UTXOs.put(o.id, o);
-        }
-
-        // Remove transaction inputs from UTXO lists as they are now spent:
-        for (TransactionInput i : inputs) {
-            if (i.UTXO == null) continue; // If Transaction can't be found, skip it.
-            Blockchain.UTXOs.remove(i.UTXO.id);
-        }
-
-        return true;
-    }
-
-    /**
-     * Calculates the total value of the transaction's inputs.
-     * @return The sum of the input values.
-     */
-    public double getInputsValue() {
-        double total = 0;
-        for (TransactionInput i : inputs) {
-            if (i.UTXO == null) continue; // If Transaction can't be found, skip it.
-            total += i.UTXO.value;
-        }
-        return total;
-    }
-
-    /**
-     * Calculates the total value of the transaction's outputs.
-     * @return The sum of the output values.
-     */
-    public double getOutputsValue() {
-        double total = 0;
-        for (TransactionOutput o : outputs) {
-            total += o.value;
-        }
-        return total;
-    }
-    
-    // --- Static Helper Methods ---
-
-    public static String applySha256(String input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(input.getBytes("UTF-8"));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public static byte[] applyECDSASig(PrivateKey privateKey, String input) {
-        try {
-            Signature dsa = Signature.getInstance("ECDSA", "BC");
-            dsa.initSign(privateKey);
-            byte[] strByte = input.getBytes();
-            dsa.update(strByte);
-            return dsa.sign();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public static boolean verifyECDSASig(PublicKey publicKey, String data, byte[] signature) {
-        try {
-            Signature ecdsaVerify = Signature.getInstance("ECDSA", "BC");
-            ecdsaVerify.initVerify(publicKey);
-            ecdsaVerify.update(data.getBytes());
-            return ecdsaVerify.verify(signature);
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
-    public static String publicKeyToString(Key key) {
-        return Base64.getEncoder().encodeToString(key.getEncoded());
-    }
-}
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+public class Transaction {
+
+    public String transactionId; // A unique identifier for the transaction.
+    public PublicKey sender; // The sender's public key (address).
+    public PublicKey recipient; // The recipient's public key (address).
+    public long value; // The amount to be transferred, in base units (see Amount).
+    public byte[] signature; // A digital signature to prevent tampering.
+
+    public ArrayList<TransactionInput> inputs = new ArrayList<>();
+    public ArrayList<TransactionOutput> outputs = new ArrayList<>();
+
+    /**
+     * Constructor for the Transaction class.
+     * @param from The sender's public key.
+     * @param to The recipient's public key.
+     * @param value The amount to be transferred, in base units.
+     * @param inputs The list of unspent transaction outputs to be used as inputs.
+     */
+    public Transaction(PublicKey from, PublicKey to, long value,  ArrayList<TransactionInput> inputs) {
+        this.sender = from;
+        this.recipient = to;
+        this.value = value;
+        this.inputs = inputs;
+    }
+
+    /**
+     * Calculates the hash of the transaction, which will serve as its unique ID.
+     * It covers the whole signed transaction, so the same transaction gets the same ID on every node.
+     */
+    private String calculateHash() {
+        return applySha256(BinaryCodec.transactionIdData(this));
+    }
+
+    /**
+     * @return true if the transaction's ID is the one its signed data and signature give.
+     */
+    public boolean hasValidId() {
+        return transactionId != null && transactionId.equals(calculateHash());
+    }
+
+    /**
+     * Generates a digital signature for the transaction data.
+     * @param privateKey The sender's private key used for signing.
+     */
+    public void generateSignature(PrivateKey privateKey) {
+        signature = applyECDSASig(privateKey, getSignatureData());
+    }
+
+    /**
+     * Generates the signature with its random number drawn from 'random' (see {@link Crypto#sign(PrivateKey, byte[], SecureRandom)}).
+     * @param privateKey The sender's private key used for signing.
+     * @param random The source of the signature's random number.
+     */
+    public void generateSignature(PrivateKey privateKey, SecureRandom random) {
+        signature = Crypto.sign(privateKey, getSignatureData(), random);
+    }
+
+    /**
+     * Verifies that the digital signature is valid.
+     * @return true if the signature is valid, false otherwise.
+     */
+    public boolean verifySignature() {
+        return verifyECDSASig(sender, getSignatureData(), signature);
+    }
+
+    /**
+     * @return The data that is signed by the sender: the canonical bytes of both keys, the value and the inputs.
+     */
+    public byte[] getSignatureData() {
+        return BinaryCodec.signatureData(this);
+    }
+
+    /**
+     * Processes the transaction against the default ledger (see {@link #processTransaction(Function, long)}).
+     * @return true if the transaction is valid and processed successfully, false otherwise.
+     */
+    public boolean processTransaction() {
+        return processTransaction(Blockchain.ledger::getUTXO, Blockchain.ledger.minimumTransaction);
+    }
+
+    /**
+     * Processes the transaction by verifying the signature, checking inputs and creating outputs.
+     * The UTXO set is not changed here: the inputs are spent and the outputs added when the
+     * block containing this transaction is applied to a {@link Ledger}.
+     * @param findUTXO Looks up an unspent output by id, returning null if it is missing or spent.
+     * @param minimumTransaction The smallest input total the transaction may spend, in base units.
+     * @return true if the transaction is valid and processed successfully, false otherwise.
+     */
+    public boolean processTransaction(Function<String, TransactionOutput> findUTXO, long minimumTransaction) {
+
+        if (!verifySignature()) {
+            Log.warn("# Transaction Signature failed to verify");
+            return false;
+        }
+
+        // Gather transaction inputs (Make sure they are unspent and owned by the sender):
+        if (inputs == null) return false;
+        for (TransactionInput i : inputs) {
+            i.UTXO = findUTXO.apply(i.transactionOutputId);
+            if (i.UTXO == null) {
+                Log.warn("# Transaction Input is missing or already spent: " + i.transactionOutputId);
+                return false;
+            }
+            if (!Crypto.sameKey(i.UTXO.recipient, sender)) {
+                Log.warn("# Transaction Input does not belong to the sender: " + i.transactionOutputId);
+                return false;
+            }
+        }
+
+        // Check if the transaction is valid:
+        long inputsValue;
+        try {
+            inputsValue = getInputsValue();
+        } catch (ArithmeticException e) {
+            Log.warn("# Transaction Inputs overflow");
+            return false;
+        }
+        if (inputsValue < minimumTransaction) {
+            Log.warn("# Transaction Inputs too small: " + Amount.format(inputsValue));
+            return false;
+        }
+        if (value <= 0 || value > inputsValue) {
+            Log.warn("# Transaction value must be positive and covered by the inputs: " + Amount.format(value));
+            return false;
+        }
+
+        // Generate transaction outputs. They are built aside and replace any earlier ones only now that
+        // the transaction checked out, so processing it again gives the same ID and the same outputs.
+        // The change is whatever the value leaves over, so the outputs always add up to the inputs.
+        long leftOver = inputsValue - value; // Get value of inputs then the left over change.
+        String id = calculateHash();
+        ArrayList<TransactionOutput> created = new ArrayList<>();
+        created.add(new TransactionOutput(this.recipient, value, id)); // Send value to recipient.
+        if (leftOver > 0) {
+            created.add(new TransactionOutput(this.sender, leftOver, id)); // Send the left over 'change' back to the sender.
+        }
+        transactionId = id;
+        outputs = created;
+        return true;
+    }
+
+    /**
+     * Calculates the total value of the transaction's inputs.
+     * @return The sum of the input values.
+     * @throws ArithmeticException if the sum does not fit in a long.
+     */
+    public long getInputsValue() {
+        long total = 0;
+        for (TransactionInput i : inputs) {
+            if (i.UTXO == null) continue; // If Transaction can't be found, skip it.
+            total = Math.addExact(total, i.UTXO.value);
+        }
+        return total;
+    }
+
+    /**
+     * Calculates the total value of the transaction's outputs.
+     * @return The sum of the output values.
+     * @throws ArithmeticException if the sum does not fit in a long.
+     */
+    public long getOutputsValue() {
+        long total = 0;
+        for (TransactionOutput o : outputs) {
+            total = Math.addExact(total, o.value);
+        }
+        return total;
+    }
+
+    /**
+     * Lists what this transaction can be looked up by in a block's filter or the address index.
+     * @return The addresses of the sender, the recipient and every output's owner, the IDs of the
+     *         outputs it spends and the IDs of the outputs it creates, without duplicates.
+     */
+    public Set<String> getInvolvedKeys() {
+        Set<String> keys = new LinkedHashSet<>();
+        if (sender != null) keys.add(Crypto.address(sender));
+        if (recipient != null) keys.add(Crypto.address(recipient));
+        if (inputs != null) {
+            for (TransactionInput i : inputs) {
+                keys.add(i.transactionOutputId);
+            }
+        }
+        for (TransactionOutput o : outputs) {
+            if (o.recipient != null) keys.add(Crypto.address(o.recipient));
+            keys.add(o.id);
+        }
+        keys.remove(null);
+        return keys;
+    }
+
+    // --- Static Helper Methods ---
+
+    public static String applySha256(String input) {
+        return applySha256(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String applySha256(byte[] input) {
+        return Crypto.sha256Hex(input);
+    }
+
+    /**
+     * Hashes a fixed header followed by a nonce written as 8 big-endian bytes.
+     * This is the same layout the {@link Miner} hashes, so both always agree.
+     */
+    public static String applySha256(byte[] header, long nonce) {
+        return Crypto.hex(Crypto.sha256(header, nonce));
+    }
+
+    public static String toHex(byte[] hash) {
+        return Crypto.hex(hash);
+    }
+
+    public static byte[] applyECDSASig(PrivateKey privateKey, String input) {
+        return applyECDSASig(privateKey, input.getBytes());
+    }
+
+    public static byte[] applyECDSASig(PrivateKey privateKey, byte[] input) {
+        return Crypto.sign(privateKey, input);
+    }
+
+    public static boolean verifyECDSASig(PublicKey publicKey, String data, byte[] signature) {
+        return verifyECDSASig(publicKey, data.getBytes(), signature);
+    }
+
+    public static boolean verifyECDSASig(PublicKey publicKey, byte[] data, byte[] signature) {
+        return Crypto.verify(publicKey, data, signature);
+    }
+
+    public static String publicKeyToString(Key key) {
+        if (key instanceof PublicKey) return Crypto.keyString((PublicKey) key);
+        return Base64.getEncoder().encodeToString(key.getEncoded());
+    }
+}
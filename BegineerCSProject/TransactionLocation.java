@@ -0,0 +1,32 @@
+/**
+ * Where a transaction is in the best chain.
+ */
+public class TransactionLocation {
+
+    // The height of the block that contains the transaction.
+    public final int height;
+    // The position of the transaction in that block.
+    public final int index;
+
+    public TransactionLocation(int height, int index) {
+        this.height = height;
+        this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TransactionLocation)) return false;
+        TransactionLocation location = (TransactionLocation) other;
+        return height == location.height && index == location.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * height + index;
+    }
+
+    @Override
+    public String toString() {
+        return "block " + height + ", transaction " + index;
+    }
+}
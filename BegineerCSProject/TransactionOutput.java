@@ -1,34 +1,52 @@
-import java.security.PublicKey;
-
-public class TransactionOutput {
-    public String id;
-    // The public key of the new owner of these coins.
-    public PublicKey recipient; 
-    // The amount of coins they own.
-    public double value; 
-    // The id of the transaction this output was created in.
-    public String parentTransactionId;
-
-    /**
-     * Constructor for the TransactionOutput class.
-     * @param recipient The public key of the recipient.
-     * @param value The amount of funds.
-     * @param parentTransactionId The ID of the parent transaction.
-     */
-    public TransactionOutput(PublicKey recipient, double value, String parentTransactionId) {
-        this.recipient = recipient;
-        this.value = value;
-        this.parentTransactionId = parentTransactionId;
-        // The ID is calculated from the recipient, value, and parent transaction ID.
-        this.id = Transaction.applySha256(Transaction.publicKeyToString(recipient) + Double.toString(value) + parentTransactionId);
-    }
-
-    /**
-     * Checks if the coins belong to the specified public key.
-     * @param publicKey The public key to check against.
-     * @return true if the output belongs to the key, false otherwise.
-     */
-    public boolean isMine(PublicKey publicKey) {
-        return (publicKey == recipient);
-    }
-}
+import java.security.PublicKey;
+
+public class TransactionOutput {
+    public String id;
+    // The public key of the new owner of these coins.
+    public PublicKey recipient; 
+    // The amount of coins they own, in base units (see Amount).
+    public long value; 
+    // The id of the transaction this output was created in.
+    public String parentTransactionId;
+
+    /**
+     * Constructor for the TransactionOutput class.
+     * @param recipient The public key of the recipient.
+     * @param value The amount of funds, in base units.
+     * @param parentTransactionId The ID of the parent transaction.
+     */
+    public TransactionOutput(PublicKey recipient, long value, String parentTransactionId) {
+        this.recipient = recipient;
+        this.value = value;
+        this.parentTransactionId = parentTransactionId;
+        // The ID is calculated from the recipient, value, and parent transaction ID.
+        this.id = Transaction.applySha256(BinaryCodec.outputIdData(recipient, value, parentTransactionId));
+    }
+
+    /**
+     * Recreates an output whose ID is already known, e.g. when decoding it from bytes.
+     */
+    TransactionOutput(String id, PublicKey recipient, long value, String parentTransactionId) {
+        this.id = id;
+        this.recipient = recipient;
+        this.value = value;
+        this.parentTransactionId = parentTransactionId;
+    }
+
+    /**
+     * @return true if the output's ID is the one its recipient, value and parent transaction give.
+     */
+    public boolean hasValidId() {
+        return id != null && id.equals(Transaction.applySha256(BinaryCodec.outputIdData(recipient, value, parentTransactionId)));
+    }
+
+    /**
+     * Checks if the coins belong to the specified public key.
+     * @param publicKey The public key to check against.
+     * @return true if the output belongs to the key, false otherwise.
+     */
+    public boolean isMine(PublicKey publicKey) {
+        // Compare the encoded keys, so two copies of the same key are recognised as the same owner.
+        return Crypto.sameKey(publicKey, recipient);
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * A wallet's spendable outputs, kept sorted by value in primitive arrays,
+ * so coin selection can walk them from the smallest or the largest without sorting or boxing.
+ * The wallet reloads the whole pool from the ledger with {@link #replaceAll} before it selects
+ * coins, and removes the outputs it spends; outputs are never inserted one at a time.
+ */
+public class UTXOPool {
+
+    // values[i] is outputs[i].value; both are sorted by value, smallest first.
+    private long[] values = new long[16];
+    private TransactionOutput[] outputs = new TransactionOutput[16];
+    private int size;
+    private long total;
+
+    /**
+     * Replaces the whole pool with 'replacement', sorting it once instead of inserting one output at a time.
+     * @param replacement The outputs the pool should hold.
+     */
+    public void replaceAll(Collection<TransactionOutput> replacement) {
+        TransactionOutput[] sorted = replacement.toArray(new TransactionOutput[0]);
+        Arrays.sort(sorted, Comparator.comparingLong((TransactionOutput output) -> output.value));
+        int capacity = Math.max(16, sorted.length);
+        outputs = Arrays.copyOf(sorted, capacity);
+        values = new long[capacity];
+        total = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            values[i] = sorted[i].value;
+            total += sorted[i].value;
+        }
+        size = sorted.length;
+    }
+
+    /**
+     * Removes an output. It is found by a binary search on its value, then by id among the outputs of that value.
+     * @param output The output to remove.
+     * @return The removed output, or null if the pool does not have it.
+     */
+    public TransactionOutput remove(TransactionOutput output) {
+        for (int i = countAtMost(output.value - 1); i < size && values[i] == output.value; i++) {
+            if (outputs[i].id.equals(output.id)) {
+                TransactionOutput removed = outputs[i];
+                System.arraycopy(values, i + 1, values, i, size - i - 1);
+                System.arraycopy(outputs, i + 1, outputs, i, size - i - 1);
+                size--;
+                outputs[size] = null;
+                total -= removed.value;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes every output.
+     */
+    public void clear() {
+        Arrays.fill(outputs, 0, size, null);
+        size = 0;
+        total = 0;
+    }
+
+    /**
+     * @return The number of outputs in the pool.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The sum of all outputs in the pool, in base units.
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * @param index A position between 0 (smallest value) and size() - 1 (largest value).
+     * @return The value of the output at that position.
+     */
+    public long valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * @param index A position between 0 (smallest value) and size() - 1 (largest value).
+     * @return The output at that position.
+     */
+    public TransactionOutput get(int index) {
+        return outputs[index];
+    }
+
+    /**
+     * @param value A value in base units.
+     * @return The number of outputs whose value is at most 'value'.
+     */
+    public int countAtMost(long value) {
+        return insertionPoint(value);
+    }
+
+    /**
+     * @return The first position whose value is larger than 'value' (binary search).
+     */
+    private int insertionPoint(long value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,175 @@
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UTXOSet {
+
+    // Concurrent maps let readers look up outputs and balances while a single writer updates the set.
+    // Keeping several reads consistent with each other is up to the owner (see Ledger).
+
+    // All unspent outputs, keyed by output id.
+    private final ConcurrentHashMap<String, TransactionOutput> outputs = new ConcurrentHashMap<>();
+    // Secondary index: owner -> that owner's unspent outputs (keyed by output id).
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, TransactionOutput>> outputsByOwner = new ConcurrentHashMap<>();
+    // Running balance of every owner in base units, updated in place whenever an output is added or removed.
+    private final ConcurrentHashMap<String, AtomicLong> balances = new ConcurrentHashMap<>();
+
+    // Marks an output that did not exist when the journal was started.
+    static final TransactionOutput ABSENT = new TransactionOutput("", null, 0, null);
+    // While a snapshot is taken (see Ledger.snapshot): for every output changed since the journal
+    // was started, what it was at that moment. Only used by the single writer; null when not journaling.
+    private HashMap<String, TransactionOutput> journal;
+
+    /**
+     * Looks up an unspent output.
+     * @param id The output id.
+     * @return The output, or null if it does not exist or has been spent.
+     */
+    public TransactionOutput get(String id) {
+        return outputs.get(id);
+    }
+
+    /**
+     * @param id The output id.
+     * @return true if the output exists and is unspent.
+     */
+    public boolean containsKey(String id) {
+        return outputs.containsKey(id);
+    }
+
+    /**
+     * Adds an unspent output and credits its owner.
+     * @param id The output id.
+     * @param output The output.
+     */
+    public void put(String id, TransactionOutput output) {
+        TransactionOutput previous = outputs.put(id, output);
+        if (journal != null) journal.putIfAbsent(id, (previous == null) ? ABSENT : previous);
+        if (previous != null) unindex(id, previous);
+        String owner = ownerKey(output.recipient);
+        outputsByOwner.computeIfAbsent(owner, k -> new ConcurrentHashMap<>()).put(id, output);
+        balances.computeIfAbsent(owner, k -> new AtomicLong()).addAndGet(output.value);
+    }
+
+    /**
+     * Removes an output (because it has been spent) and debits its owner.
+     * @param id The output id.
+     * @return The removed output, or null if there was none.
+     */
+    public TransactionOutput remove(String id) {
+        TransactionOutput removed = outputs.remove(id);
+        if (removed != null && journal != null) journal.putIfAbsent(id, removed);
+        if (removed != null) unindex(id, removed);
+        return removed;
+    }
+
+    /**
+     * Applies an already processed transaction: its inputs are spent and its outputs are added.
+     * This is used when replaying stored blocks, where the outputs and IDs are already known.
+     * @param transaction The transaction to apply.
+     */
+    public void apply(Transaction transaction) {
+        if (transaction.inputs != null) {
+            for (TransactionInput input : transaction.inputs) {
+                remove(input.transactionOutputId);
+            }
+        }
+        for (TransactionOutput output : transaction.outputs) {
+            put(output.id, output);
+        }
+    }
+
+    /**
+     * @return The number of unspent outputs.
+     */
+    public int size() {
+        return outputs.size();
+    }
+
+    /**
+     * Returns the balance of an owner without scanning the whole set.
+     * @param owner The owner's public key.
+     * @return The sum of the owner's unspent outputs, in base units.
+     */
+    public long getBalance(PublicKey owner) {
+        return getBalance(ownerKey(owner));
+    }
+
+    /**
+     * @param address The owner's address (see {@link Crypto#address}).
+     * @return The sum of the owner's unspent outputs, in base units.
+     */
+    public long getBalance(String address) {
+        AtomicLong balance = balances.get(address);
+        return (balance == null) ? 0 : balance.get();
+    }
+
+    /**
+     * Returns the unspent outputs of one owner.
+     * @param owner The owner's public key.
+     * @return A read-only view of the owner's outputs (empty if there are none).
+     */
+    public Collection<TransactionOutput> getOutputs(PublicKey owner) {
+        return getOutputs(ownerKey(owner));
+    }
+
+    /**
+     * @param address The owner's address (see {@link Crypto#address}).
+     * @return A read-only view of the owner's outputs (empty if there are none).
+     */
+    public Collection<TransactionOutput> getOutputs(String address) {
+        Map<String, TransactionOutput> owned = outputsByOwner.get(address);
+        if (owned == null) return Collections.emptyList();
+        return Collections.unmodifiableCollection(owned.values());
+    }
+
+    /**
+     * Starts remembering the current value of every output that is changed from now on.
+     * Must be called by the writer.
+     */
+    void startJournal() {
+        journal = new HashMap<>();
+    }
+
+    /**
+     * Stops the journal. Must be called by the writer.
+     * @return For every output changed since startJournal(), its value back then ({@link #ABSENT} if it did not exist).
+     */
+    Map<String, TransactionOutput> stopJournal() {
+        Map<String, TransactionOutput> changed = journal;
+        journal = null;
+        return changed;
+    }
+
+    /**
+     * @return A read-only view of every unspent output, keyed by output id.
+     */
+    public Map<String, TransactionOutput> asMap() {
+        return Collections.unmodifiableMap(outputs);
+    }
+
+    private void unindex(String id, TransactionOutput output) {
+        String owner = ownerKey(output.recipient);
+        ConcurrentHashMap<String, TransactionOutput> owned = outputsByOwner.get(owner);
+        if (owned == null) return;
+        owned.remove(id);
+        if (owned.isEmpty()) {
+            // Drop empty owners completely, so they do not keep an entry in the index.
+            outputsByOwner.remove(owner);
+            balances.remove(owner);
+        } else {
+            balances.get(owner).addAndGet(-output.value);
+        }
+    }
+
+    /**
+     * Owners are compared by their address (the hash of the encoded public key), not by object identity.
+     */
+    private static String ownerKey(PublicKey owner) {
+        return Crypto.address(owner);
+    }
+}
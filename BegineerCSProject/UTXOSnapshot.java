@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The UTXO set as it was right after one block of the best chain. A node that loads a
+ * snapshot only has to replay the blocks after that block instead of the whole chain.
+ *
+ * File layout (all numbers big-endian):
+ *   4-byte magic "UTXO", 1 byte format version, 32-byte block hash, 4-byte block height,
+ *   4-byte output count, outputs (BinaryCodec output encoding), 4-byte CRC32 of everything before it.
+ * Files are written to a temporary name and then renamed, so a crash never leaves half a snapshot.
+ */
+public class UTXOSnapshot {
+
+    private static final int MAGIC = 0x5554584F; // "UTXO"
+    private static final byte FORMAT = 1;
+
+    // The block after which the outputs were unspent.
+    public final String blockHash;
+    public final int height;
+    public final List<TransactionOutput> outputs;
+
+    /**
+     * @param blockHash The hash of the block the snapshot belongs to.
+     * @param height That block's height on the best chain.
+     * @param outputs Every output that was unspent after that block.
+     */
+    public UTXOSnapshot(String blockHash, int height, List<TransactionOutput> outputs) {
+        this.blockHash = blockHash;
+        this.height = height;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Writes the snapshot, replacing any earlier snapshot in the same file.
+     * @param file Where to write it.
+     */
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            buffer.putInt(MAGIC).put(FORMAT).put(Crypto.hexToBytes(blockHash)).putInt(height).putInt(outputs.size());
+            for (TransactionOutput output : outputs) {
+                byte[] encoded = BinaryCodec.encode(output);
+                if (buffer.remaining() < encoded.length) {
+                    flush(channel, buffer, crc);
+                    if (buffer.capacity() < encoded.length) buffer = ByteBuffer.allocate(encoded.length);
+                }
+                buffer.put(encoded);
+            }
+            flush(channel, buffer, crc);
+            buffer.putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot.
+     * @param file The snapshot file.
+     * @return The snapshot, or null if there is no file.
+     * @throws IOException if the file cannot be read, is corrupt or has an unknown format.
+     */
+    public static UTXOSnapshot read(Path file) throws IOException {
+        if (!Files.exists(file)) return null;
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (in.remaining() < 4 + 1 + 32 + 4 + 4 + 4) throw new IOException("Snapshot " + file + " is truncated");
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), 0, in.limit() - 4);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) throw new IOException("Snapshot " + file + " is corrupt");
+        in.limit(in.limit() - 4);
+
+        if (in.getInt() != MAGIC || in.get() != FORMAT) throw new IOException("Unknown snapshot format in " + file);
+        byte[] hash = new byte[32];
+        in.get(hash);
+        int height = in.getInt();
+        int count = in.getInt();
+        List<TransactionOutput> outputs = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) outputs.add(BinaryCodec.decodeOutput(in));
+        } catch (RuntimeException e) {
+            throw new IOException("Snapshot " + file + " is corrupt", e);
+        }
+        return new UTXOSnapshot(Crypto.hex(hash), height, outputs);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What connecting one block changed in the UTXO set, so the block can be disconnected again
+ * without replaying the chain: the outputs its transactions spent (which are gone from the set
+ * and must be restored) and the outputs they created (which are the block's own outputs and must
+ * be removed). Undoing costs as much as connecting, whatever the length of the chain.
+ */
+public class UndoRecord {
+
+    // The block whose changes are recorded. Its transactions list the created outputs.
+    public final Block block;
+    // spent.get(i) holds the outputs spent by transaction i, in input order.
+    private final List<TransactionOutput[]> spent;
+
+    private UndoRecord(Block block, List<TransactionOutput[]> spent) {
+        this.block = block;
+        this.spent = spent;
+    }
+
+    /**
+     * Applies a block's transactions to a UTXO set and records how to undo them.
+     * The block must already have been checked: every input must be unspent.
+     * @param block The block to connect.
+     * @param UTXOs The set to change.
+     * @return The record that reverses the change.
+     */
+    public static UndoRecord connect(Block block, UTXOSet UTXOs) {
+        List<TransactionOutput[]> spent = new ArrayList<>(block.transactions.size());
+        for (Transaction transaction : block.transactions) {
+            int inputCount = (transaction.inputs == null) ? 0 : transaction.inputs.size();
+            TransactionOutput[] spentByTransaction = new TransactionOutput[inputCount];
+            for (int i = 0; i < inputCount; i++) {
+                spentByTransaction[i] = UTXOs.remove(transaction.inputs.get(i).transactionOutputId);
+            }
+            spent.add(spentByTransaction);
+            for (TransactionOutput output : transaction.outputs) {
+                UTXOs.put(output.id, output);
+            }
+        }
+        return new UndoRecord(block, spent);
+    }
+
+    /**
+     * Reverses {@link #connect}: the block's transactions are undone newest first, so an output
+     * created and spent inside the same block is restored and then removed again.
+     * @param UTXOs The set the block was connected to, with no later blocks still connected.
+     */
+    public void disconnect(UTXOSet UTXOs) {
+        for (int t = block.transactions.size() - 1; t >= 0; t--) {
+            Transaction transaction = block.transactions.get(t);
+            for (TransactionOutput output : transaction.outputs) {
+                UTXOs.remove(output.id);
+            }
+            for (TransactionOutput output : spent.get(t)) {
+                if (output != null) UTXOs.put(output.id, output);
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+public class ValidationResult {
+
+    // true if every checked block passed.
+    public final boolean valid;
+    // Height of the first block that failed, or -1 when the chain is valid.
+    public final int failedHeight;
+    // Why that block failed, or null when the chain is valid.
+    public final String reason;
+
+    private ValidationResult(boolean valid, int failedHeight, String reason) {
+        this.valid = valid;
+        this.failedHeight = failedHeight;
+        this.reason = reason;
+    }
+
+    /**
+     * @return A result for a chain in which every block is valid.
+     */
+    public static ValidationResult ok() {
+        return new ValidationResult(true, -1, null);
+    }
+
+    /**
+     * @param height The height of the block that failed.
+     * @param reason A short description of what was wrong.
+     * @return A result describing the failure.
+     */
+    public static ValidationResult failure(int height, String reason) {
+        return new ValidationResult(false, height, reason);
+    }
+
+    @Override
+    public String toString() {
+        return valid ? "Blockchain is valid" : "Block " + failedHeight + " is invalid: " + reason;
+    }
+}
@@ -1,94 +1,208 @@
-import java.security.*;
-import java.security.spec.ECGenParameterSpec;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-
-public class Wallet {
-
-    // The private key, used to sign transactions. It must be kept secret.
-    public PrivateKey privateKey;
-    // The public key, which acts as the wallet's address. It can be shared publicly.
-    public PublicKey publicKey;
-
-    // A map to keep track of unspent transaction outputs (UTXOs) owned by this wallet.
-    // This is managed locally for the wallet's convenience.
-    public HashMap<String, TransactionOutput> UTXOs = new HashMap<>();
-
-    /**
-     * Constructor for the Wallet class.
-     * It generates a new public/private key pair upon creation.
-     */
-    public Wallet() {
-        generateKeyPair();
-    }
-
-    /**
-     * Generates a new Elliptic Curve (EC) key pair.
-     */
-    public void generateKeyPair() {
-        try {
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("ECDSA", "BC");
-            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
-            ECGenParameterSpec ecSpec = new ECGenParameterSpec("prime192v1");
-            
-            keyGen.initialize(ecSpec, random);
-            KeyPair keyPair = keyGen.generateKeyPair();
-            
-            privateKey = keyPair.getPrivate();
-            publicKey = keyPair.getPublic();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    /**
-     * Calculates the balance of the wallet by summing up the value of all its UTXOs.
-     * It scans the main blockchain's UTXO list to find outputs belonging to this wallet.
-     * @return The total balance of the wallet.
-     */
-    public double getBalance() {
-        double total = 0;
-        for (Map.Entry<String, TransactionOutput> item : Blockchain.UTXOs.entrySet()) {
-            TransactionOutput UTXO = item.getValue();
-            if (UTXO.isMine(publicKey)) { // Check if the output belongs to this wallet
-                UTXOs.put(UTXO.id, UTXO); // Add it to our list of unspent transactions.
-                total += UTXO.value;
-            }
-        }
-        return total;
-    }
-
-    /**
-     * Creates and returns a new transaction from this wallet.
-     * @param _recipient The public key of the recipient.
-     * @param _value The amount to send.
-     * @return The newly created transaction, or null if funds are insufficient.
-     */
-    public Transaction sendFunds(PublicKey _recipient, double _value) {
-        if (getBalance() < _value) {
-            System.out.println("# Not enough funds to send transaction. Transaction Discarded.");
-            return null;
-        }
-        
-        // Create a list of inputs for the new transaction from the wallet's UTXOs
-        ArrayList<TransactionInput> inputs = new ArrayList<>();
-
-        double total = 0;
-        for (Map.Entry<String, TransactionOutput> item : UTXOs.entrySet()) {
-            TransactionOutput UTXO = item.getValue();
-            total += UTXO.value;
-            inputs.add(new TransactionInput(UTXO.id));
-            if (total > _value) break;
-        }
-
-        Transaction newTransaction = new Transaction(publicKey, _recipient, _value, inputs);
-        newTransaction.generateSignature(privateKey);
-
-        // Remove the spent UTXOs from this wallet's list
-        for (TransactionInput input : inputs) {
-            UTXOs.remove(input.transactionOutputId);
-        }
-        return newTransaction;
-    }
-}
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.*;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Wallet {
+
+    // The private key, used to sign transactions. It must be kept secret.
+    public PrivateKey privateKey;
+    // The public key, which acts as the wallet's address. It can be shared publicly.
+    public PublicKey publicKey;
+
+    // The spendable unspent transaction outputs (UTXOs) owned by this wallet, sorted by value.
+    // Reloaded from the ledger before every send or consolidation (see refreshUTXOs).
+    public UTXOPool UTXOs = new UTXOPool();
+    // Decides which UTXOs pay for a transaction. By default an exact match is tried first,
+    // so no change output is created, and otherwise the largest UTXOs are spent.
+    public CoinSelector coinSelector = new BranchAndBoundSelector();
+    // When the wallet holds at least this many spendable UTXOs, consolidate() merges them (0 = never).
+    public int consolidationThreshold = 0;
+    // The most UTXOs one consolidating transaction spends.
+    public int maxConsolidationInputs = 50;
+    // The ledger this wallet reads its balance and outputs from.
+    public Ledger ledger = Blockchain.ledger;
+    // The mempool this wallet's transactions are submitted to; outputs it has claimed are not spent again (null = none).
+    public Mempool mempool = Blockchain.mempool;
+
+    /**
+     * Constructor for the Wallet class.
+     * It generates a new public/private key pair upon creation.
+     */
+    public Wallet() {
+        generateKeyPair();
+    }
+
+    /**
+     * Creates a wallet whose key pair is drawn from 'random', so a seeded generator
+     * gives the same wallet every time (as the {@link Simulation} needs).
+     * @param random The source of the key pair.
+     */
+    public Wallet(SecureRandom random) {
+        generateKeyPair(random);
+    }
+
+    /**
+     * Creates a wallet from an existing key pair.
+     * @param privateKey The wallet's private key.
+     * @param publicKey The wallet's public key.
+     */
+    public Wallet(PrivateKey privateKey, PublicKey publicKey) {
+        this.privateKey = privateKey;
+        this.publicKey = publicKey;
+    }
+
+    /**
+     * Loads a wallet's keys from a file, or creates a new wallet and saves it there.
+     * The private key is stored unencrypted, which is only acceptable for this demo.
+     * @param file The key file.
+     * @return The loaded or newly created wallet.
+     */
+    public static Wallet loadOrCreate(Path file) throws IOException {
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                byte[] privateBytes = new byte[in.readUnsignedShort()];
+                in.readFully(privateBytes);
+                byte[] publicBytes = new byte[in.readUnsignedShort()];
+                in.readFully(publicBytes);
+                KeyFactory keyFactory = KeyFactory.getInstance("ECDSA", "BC");
+                return new Wallet(keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateBytes)),
+                        Crypto.decodeKey(publicBytes));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Invalid key file " + file, e);
+            }
+        }
+        Wallet wallet = new Wallet();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            byte[] privateBytes = wallet.privateKey.getEncoded();
+            byte[] publicBytes = wallet.publicKey.getEncoded();
+            out.writeShort(privateBytes.length);
+            out.write(privateBytes);
+            out.writeShort(publicBytes.length);
+            out.write(publicBytes);
+        }
+        return wallet;
+    }
+
+    /**
+     * Generates a new Elliptic Curve (EC) key pair.
+     */
+    public void generateKeyPair() {
+        try {
+            generateKeyPair(SecureRandom.getInstance("SHA1PRNG"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Generates a new Elliptic Curve (EC) key pair from the given source of randomness.
+     */
+    public void generateKeyPair(SecureRandom random) {
+        try {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("ECDSA", "BC");
+            ECGenParameterSpec ecSpec = new ECGenParameterSpec("prime192v1");
+            
+            keyGen.initialize(ecSpec, random);
+            KeyPair keyPair = keyGen.generateKeyPair();
+            
+            privateKey = keyPair.getPrivate();
+            publicKey = keyPair.getPublic();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the balance of the wallet.
+     * The ledger's UTXO set keeps a running balance per owner, so this does not scan it.
+     * @return The total balance of the wallet, in base units.
+     */
+    public long getBalance() {
+        return ledger.getBalance(publicKey);
+    }
+
+    /**
+     * Reloads this wallet's spendable UTXOs from the owner index of the ledger's UTXO set.
+     * Outputs already claimed by a pending transaction in the wallet's mempool are left out.
+     * This only touches the outputs the wallet owns.
+     */
+    public synchronized void refreshUTXOs() {
+        List<TransactionOutput> spendable = new ArrayList<>();
+        for (TransactionOutput UTXO : ledger.getUTXOs(publicKey)) {
+            if (mempool != null && mempool.isClaimed(UTXO.id)) continue; // Already being spent by a pending transaction.
+            spendable.add(UTXO);
+        }
+        UTXOs.replaceAll(spendable); // Sorted once, not one insertion at a time.
+    }
+
+    /**
+     * Creates and returns a new transaction from this wallet.
+     * The inputs are chosen by this wallet's coinSelector.
+     * @param _recipient The public key of the recipient.
+     * @param _value The amount to send, in base units.
+     * @return The newly created transaction, or null if funds are insufficient.
+     */
+    public synchronized Transaction sendFunds(PublicKey _recipient, long _value) {
+        if (_value <= 0) {
+            Log.warn("# Amount must be positive. Transaction Discarded.");
+            return null;
+        }
+        if (getBalance() < _value) {
+            Log.warn("# Not enough funds to send transaction. Transaction Discarded.");
+            return null;
+        }
+        refreshUTXOs();
+
+        // Choose which of the wallet's UTXOs become the inputs of the new transaction
+        List<TransactionOutput> selected = coinSelector.select(UTXOs, _value);
+        if (selected == null) {
+            Log.warn("# Not enough unspent funds outside of pending transactions. Transaction Discarded.");
+            return null;
+        }
+        return createTransaction(_recipient, _value, selected);
+    }
+
+    /**
+     * Merges many small UTXOs into one output back to this wallet, so later payments need
+     * fewer inputs and the UTXO set stays small. Nothing is done while the wallet holds
+     * fewer than consolidationThreshold spendable outputs.
+     * @return The consolidating transaction, or null if there is nothing worth merging.
+     */
+    public synchronized Transaction consolidate() {
+        if (consolidationThreshold <= 0) return null;
+        refreshUTXOs();
+        if (UTXOs.size() < consolidationThreshold) return null;
+
+        List<TransactionOutput> selected = new ArrayList<>();
+        long total = 0;
+        for (int i = 0; i < UTXOs.size() && i < maxConsolidationInputs; i++) {
+            selected.add(UTXOs.get(i)); // Smallest first.
+            total += UTXOs.valueAt(i);
+        }
+        if (total < ledger.minimumTransaction) return null;
+        return createTransaction(publicKey, total, selected);
+    }
+
+    private Transaction createTransaction(PublicKey recipient, long value, List<TransactionOutput> selected) {
+        ArrayList<TransactionInput> inputs = new ArrayList<>();
+        for (TransactionOutput UTXO : selected) {
+            inputs.add(new TransactionInput(UTXO.id));
+        }
+
+        Transaction newTransaction = new Transaction(publicKey, recipient, value, inputs);
+        newTransaction.generateSignature(privateKey);
+
+        // Remove the spent UTXOs from this wallet's list
+        for (TransactionOutput UTXO : selected) {
+            UTXOs.remove(UTXO);
+        }
+        return newTransaction;
+    }
+}
@@ -0,0 +1,33 @@
+package ledger;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * A wallet's balance, read from the ledger's running balances, as the UTXO set grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BalanceBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int utxos;
+
+    private Wallet wallet;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.init();
+        wallet = new Wallet();
+        wallet.ledger = BenchmarkFixtures.utxoLedger(utxos, wallet, new Wallet());
+    }
+
+    @Benchmark
+    public long getBalance() {
+        return wallet.getBalance();
+    }
+}
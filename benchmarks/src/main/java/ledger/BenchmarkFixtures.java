@@ -0,0 +1,97 @@
+package ledger;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ledgers and chains the benchmarks run against.
+ */
+final class BenchmarkFixtures {
+
+    // Benchmark chains are mined in a burst, so they are checked against rules that never retarget.
+    static final Difficulty FIXED_DIFFICULTY = new Difficulty(1, Integer.MAX_VALUE, 1000);
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Registers the Bouncy Castle provider and keeps per-block messages out of the results.
+     * Called by every benchmark's setup, since each fork is a fresh JVM.
+     */
+    static void init() {
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        }
+        Log.setLevel(Log.Level.WARN);
+    }
+
+    /**
+     * Builds a ledger whose UTXO set holds 'size' outputs, spread over 1000 owners.
+     * The benchmarked owner holds a single output, so the cost measured is that of the lookup.
+     */
+    static Ledger utxoLedger(int size, Wallet owner, Wallet other) {
+        Ledger ledger = new Ledger(0, FIXED_DIFFICULTY);
+        Block block = new Block("0");
+        List<Wallet> owners = new ArrayList<>();
+        for (int i = 0; i < 999; i++) owners.add(new Wallet());
+        Transaction genesis = new Transaction(other.publicKey, owner.publicKey, 1, null);
+        genesis.transactionId = "0";
+        genesis.outputs.add(new TransactionOutput(owner.publicKey, 1, "0"));
+        for (int i = 1; i < size; i++) {
+            genesis.outputs.add(new TransactionOutput(owners.get(i % owners.size()).publicKey, 1, "0-" + i));
+        }
+        block.addTransaction(genesis, ledger);
+        ledger.applyBlock(block);
+        return ledger;
+    }
+
+    /**
+     * Mines a chain at difficulty 1 in which every block holds 'perBlock' signed transactions,
+     * each spending the change of the one before.
+     */
+    static List<Block> signedChain(int length, int perBlock, Wallet sender, Wallet recipient) {
+        Ledger ledger = new Ledger(0, FIXED_DIFFICULTY);
+        List<Block> chain = new ArrayList<>();
+        Transaction genesis = new Transaction(sender.publicKey, sender.publicKey, Amount.ofCoins(1_000_000), null);
+        genesis.generateSignature(sender.privateKey);
+        genesis.transactionId = "0";
+        genesis.outputs.add(new TransactionOutput(sender.publicKey, genesis.value, "0"));
+        Block block = new Block("0");
+        block.addTransaction(genesis, ledger);
+        block.mineBlock(FIXED_DIFFICULTY.limit);
+        ledger.applyBlock(block);
+        chain.add(block);
+        String change = genesis.outputs.get(0).id;
+        for (int i = 1; i < length; i++) {
+            block = new Block(block.hash);
+            for (int t = 0; t < perBlock; t++) {
+                ArrayList<TransactionInput> inputs = new ArrayList<>();
+                inputs.add(new TransactionInput(change));
+                Transaction transaction = new Transaction(sender.publicKey, recipient.publicKey, Amount.COIN, inputs);
+                transaction.generateSignature(sender.privateKey);
+                block.addTransaction(transaction, ledger);
+                change = transaction.outputs.get(1).id;
+            }
+            block.mineBlock(FIXED_DIFFICULTY.limit);
+            ledger.applyBlock(block);
+            chain.add(block);
+        }
+        return chain;
+    }
+
+    /**
+     * Mines a chain of empty blocks at difficulty 1.
+     */
+    static List<Block> minedChain(int length) {
+        List<Block> chain = new ArrayList<>();
+        String previousHash = "0";
+        for (int i = 0; i < length; i++) {
+            Block block = new Block(previousHash);
+            block.mineBlock(FIXED_DIFFICULTY.limit);
+            chain.add(block);
+            previousHash = block.hash;
+        }
+        return chain;
+    }
+}
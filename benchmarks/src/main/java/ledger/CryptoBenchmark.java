@@ -0,0 +1,49 @@
+package ledger;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Hashing, signing and verifying one transaction's data.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CryptoBenchmark {
+
+    private Wallet sender;
+    private String text;
+    private byte[] data;
+    private byte[] signature;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.init();
+        sender = new Wallet();
+        Wallet recipient = new Wallet();
+        text = Transaction.publicKeyToString(sender.publicKey);
+        Transaction signed = new Transaction(sender.publicKey, recipient.publicKey, 5, new ArrayList<>());
+        signed.generateSignature(sender.privateKey);
+        data = signed.getSignatureData();
+        signature = signed.signature;
+    }
+
+    @Benchmark
+    public String applySha256() {
+        return Transaction.applySha256(text);
+    }
+
+    @Benchmark
+    public byte[] applyECDSASig() {
+        return Transaction.applyECDSASig(sender.privateKey, data);
+    }
+
+    @Benchmark
+    public boolean verifyECDSASig() {
+        return Transaction.verifyECDSASig(sender.publicKey, data, signature);
+    }
+}
@@ -0,0 +1,39 @@
+package ledger;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Importing a chain of 100 blocks with 20 signed transactions each into a fresh ledger:
+ * the hash, signatures and UTXO changes of every block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImportBenchmark {
+
+    private List<Block> chain;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.init();
+        chain = BenchmarkFixtures.signedChain(100, 20, new Wallet(), new Wallet());
+    }
+
+    @Benchmark
+    public Ledger importChain() {
+        Ledger ledger = new Ledger(0, BenchmarkFixtures.FIXED_DIFFICULTY);
+        for (Block block : chain) {
+            if (!block.hash.equals(block.calculateHash())) throw new IllegalStateException("Wrong hash: " + block.hash);
+            for (boolean valid : block.verifySignatures()) {
+                if (!valid) throw new IllegalStateException("Invalid signature in " + block.hash);
+            }
+            ledger.acceptBlock(block);
+        }
+        return ledger;
+    }
+}
@@ -0,0 +1,48 @@
+package ledger;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Building a block's Merkle tree from scratch, and reading the root a block has cached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MerkleRootBenchmark {
+
+    @Param({ "1", "10", "100", "1000", "10000" })
+    public int transactions;
+
+    private Block block;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.init();
+        Wallet sender = new Wallet();
+        Wallet recipient = new Wallet();
+        block = new Block("0");
+        for (int i = 0; i < transactions; i++) {
+            Transaction transaction = new Transaction(sender.publicKey, recipient.publicKey, i, new ArrayList<>());
+            transaction.transactionId = Transaction.applySha256("tx" + i);
+            block.addTransaction(transaction); // A block on "0" takes transactions without processing them.
+        }
+        block.getMerkleRoot();
+    }
+
+    @Benchmark
+    public String build() {
+        MerkleTree tree = new MerkleTree();
+        for (Transaction transaction : block.transactions) tree.add(transaction.transactionId);
+        return tree.getRoot();
+    }
+
+    @Benchmark
+    public String cached() {
+        return block.getMerkleRoot();
+    }
+}
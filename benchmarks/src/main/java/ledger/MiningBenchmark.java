@@ -0,0 +1,31 @@
+package ledger;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Mining an empty block with the shared parallel miner, at a number of leading zero hex digits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MiningBenchmark {
+
+    @Param({ "1", "2", "3", "4" })
+    public int difficulty;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.init();
+    }
+
+    @Benchmark
+    public String mineBlock() {
+        Block block = new Block("0");
+        block.mineBlock(Difficulty.fromLeadingZeros(difficulty));
+        return block.hash;
+    }
+}
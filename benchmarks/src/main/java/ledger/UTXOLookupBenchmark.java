@@ -0,0 +1,49 @@
+package ledger;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Looking up outputs by ID in the heap UTXO map and in the off-heap compact table.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UTXOLookupBenchmark {
+
+    @Param({ "100000", "1000000" })
+    public int utxos;
+
+    private UTXOSet heap;
+    private CompactUTXOTable compact;
+    private String[] ids;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.init();
+        Wallet recipient = new Wallet();
+        heap = new UTXOSet();
+        compact = new CompactUTXOTable(utxos);
+        ids = new String[utxos];
+        for (int i = 0; i < utxos; i++) {
+            TransactionOutput output = new TransactionOutput(recipient.publicKey, 1 + i, "utxo-" + i);
+            ids[i] = output.id;
+            heap.put(output.id, output);
+            compact.put(output.id, output);
+        }
+    }
+
+    @Benchmark
+    public TransactionOutput heap() {
+        return heap.get(ids[next++ % ids.length]);
+    }
+
+    @Benchmark
+    public long compact() {
+        return compact.getValue(ids[next++ % ids.length]);
+    }
+}
@@ -0,0 +1,41 @@
+package ledger;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Validating a chain of empty blocks from the start, and again when nothing was added since.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+    @Param({ "100", "1000" })
+    public int blocks;
+
+    private List<Block> chain;
+    private ChainValidator incremental;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.init();
+        chain = BenchmarkFixtures.minedChain(blocks);
+        incremental = new ChainValidator();
+        incremental.validate(chain, BenchmarkFixtures.FIXED_DIFFICULTY);
+    }
+
+    @Benchmark
+    public ValidationResult full() {
+        return new ChainValidator().validateAll(chain, BenchmarkFixtures.FIXED_DIFFICULTY);
+    }
+
+    @Benchmark
+    public ValidationResult incremental() {
+        return incremental.validate(chain, BenchmarkFixtures.FIXED_DIFFICULTY);
+    }
+}